@@ -0,0 +1,144 @@
+import org.joml.Vector3i;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Fetches of archived chunks, decoded from region files that are already mapped and freshly remapped,
+ * against reading the payload and setting voxel by voxel like the old archive did
+ * One operation fetches every archived chunk once, all pages stay in the page cache unless they are evicted,
+ * see ColdBenchmarks
+ */
+public class ArchiveWorkload implements benchmark.Workload {
+
+    private World world;
+    private final List<Vector3i> origins = new ArrayList<>();
+    private RegionStore store;
+    // The baseline reads full id arrays, as the old archive did
+    private RegionStore rawStore;
+
+    @Override
+    public void setup() throws IOException {
+        world = BenchmarkWorld.generated(16);
+        store = RegionStore.temporary();
+        rawStore = RegionStore.temporary();
+        for (Chunk chunk : world.chunks) {
+            store.write(chunk.key(), ChunkCodec.encode(chunk, false));
+            rawStore.write(chunk.key(), rawPayload(chunk));
+            origins.add(new Vector3i(chunk.origin));
+        }
+        store.flush();
+        rawStore.flush();
+        System.out.printf("%d archived chunks%n", origins.size());
+    }
+
+    @Override
+    public LongSupplier operation(String name) {
+        switch (name) {
+            case "mapped":
+                return this::fetchMapped;
+            case "remapped":
+                // Reopen and remap the region files first
+                return () -> {
+                    store.close();
+                    return fetchMapped();
+                };
+            case "voxels":
+                return () -> {
+                    try {
+                        long found = 0;
+                        for (Vector3i origin : origins) {
+                            if (setVoxels(world, origin, rawStore.read(Chunk.key(origin))) != null) found++;
+                        }
+                        return found;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                };
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Close the region files and drop the page cache of the whole system, which needs root on Linux
+     * @throws Exception
+     */
+    @Override
+    public void evict() throws Exception {
+        // Mapped pages are not dropped
+        store.close();
+        rawStore.close();
+        if (new ProcessBuilder("sync").inheritIO().start().waitFor() != 0) throw new IOException("sync failed");
+        Path dropCaches = Paths.get("/proc/sys/vm/drop_caches");
+        if (!Files.isWritable(dropCaches)) throw new IOException("Dropping the page cache needs root on Linux");
+        Files.write(dropCaches, "1".getBytes());
+    }
+
+    @Override
+    public void tearDown() {
+        store.clear();
+        rawStore.clear();
+    }
+
+    private long fetchMapped() {
+        try {
+            long found = 0;
+            for (Vector3i origin : origins) {
+                if (ChunkCodec.decode(world, origin, store.map(Chunk.key(origin))) != null) found++;
+            }
+            return found;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Ids of every non empty section in full, behind a tag per section: empty, uniform with its id, or raw
+     */
+    private static byte[] rawPayload(Chunk chunk) {
+        ByteBuffer data = ByteBuffer.allocate(1 + Chunk.SECTIONS * (1 + Chunk.SECTION_SIZE));
+        data.put((byte) 1);
+        for (BlockStorage section : chunk.sections) {
+            if (section == null) {
+                data.put((byte) 0);
+            } else if (section.isUniform()) {
+                data.put((byte) 1).put(section.get(0));
+            } else {
+                data.put((byte) 2);
+                for (int i = 0; i < Chunk.SECTION_SIZE; i++) data.put(section.get(i));
+            }
+        }
+        return Arrays.copyOf(data.array(), data.position());
+    }
+
+    /**
+     * The old archive decode as a baseline, every voxel set through Chunk.setBlock
+     */
+    private static Chunk setVoxels(World world, Vector3i origin, byte[] data) {
+        Chunk chunk = new Chunk(world, origin.x, origin.y, origin.z);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.get();
+        for (int s = 0; s < Chunk.SECTIONS; s++) {
+            byte tag = buffer.get();
+            if (tag == 0) continue;
+            byte uniform = (tag == 1) ? buffer.get() : BlockStorage.AIR;
+            for (int i = 0; i < Chunk.SECTION_SIZE; i++) {
+                byte id = (tag == 1) ? uniform : buffer.get();
+                if (id == BlockStorage.AIR) continue;
+                chunk.setBlock(Chunk.localX(i), Chunk.localY(i) + s * Chunk.SECTION_HEIGHT, Chunk.localZ(i), BlockType.type(id));
+            }
+        }
+        chunk.compact();
+        return chunk;
+    }
+
+}
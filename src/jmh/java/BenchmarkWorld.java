@@ -0,0 +1,57 @@
+import org.joml.Vector3i;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Worlds and chunks the workloads run on
+ */
+class BenchmarkWorld {
+
+    /**
+     * Headless hill world with the chunks around the origin generated
+     * @param radius in chunks, 16 is roughly what is loaded at the default render distance
+     * @return
+     */
+    static World generated(int radius) {
+        World world = World.headless(new HillWorldGenerator(42, 30, 15, 100f));
+        for (int x = -radius; x < radius; x++) {
+            for (int z = -radius; z < radius; z++) {
+                world.addChunk(world.worldGenerator.generateNow(world, new Vector3i(x * Chunk.WIDTH, 0, z * Chunk.WIDTH)));
+            }
+        }
+        return world;
+    }
+
+    /**
+     * Chunks of demo_world.bwe if it is in the working directory, otherwise those of the world
+     * @param world
+     * @return
+     * @throws IOException
+     */
+    static List<Chunk> sample(World world) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        File demo = new File("demo_world.bwe");
+        if (!demo.exists()) {
+            for (Chunk chunk : world.chunks) chunks.add(chunk);
+            System.out.printf("%d generated chunks%n", chunks.size());
+            return chunks;
+        }
+        try (ZipInputStream zis = new ZipInputStream(new FileInputStream(demo))) {
+            for (ZipEntry entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
+                if (!entry.getName().endsWith(".chunk")) continue;
+                Chunk chunk = ChunkCodec.decode(world, new Vector3i(chunks.size() * Chunk.WIDTH, 0, 0), ByteBuffer.wrap(zis.readAllBytes()));
+                if (chunk != null) chunks.add(chunk);
+            }
+        }
+        System.out.printf("%d chunks from %s%n", chunks.size(), demo.getName());
+        return chunks;
+    }
+
+}
@@ -0,0 +1,55 @@
+import java.util.HashMap;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+/**
+ * Chunk lookups by origin, LongHashMap against the nested HashMaps World used before
+ * One operation is one lookup, half of them outside the loaded area
+ */
+public class ChunkmapWorkload implements benchmark.Workload {
+
+    // Roughly the chunks loaded at the default render distance
+    private static final int RADIUS = 16;
+    private static final int LOOKUPS = 1 << 16;
+
+    private final LongHashMap<Object> packed = new LongHashMap<>();
+    private final HashMap<Integer, HashMap<Integer, Object>> nested = new HashMap<>();
+    private final int[] xs = new int[LOOKUPS], zs = new int[LOOKUPS];
+    private int next;
+
+    @Override
+    public void setup() {
+        Object chunk = new Object();
+        for (int x = -RADIUS; x < RADIUS; x++) {
+            for (int z = -RADIUS; z < RADIUS; z++) {
+                packed.put(Chunk.key(x * Chunk.WIDTH, z * Chunk.WIDTH), chunk);
+                nested.computeIfAbsent(x * Chunk.WIDTH, k -> new HashMap<>()).put(z * Chunk.WIDTH, chunk);
+            }
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < LOOKUPS; i++) {
+            xs[i] = (random.nextInt(RADIUS * 4) - RADIUS * 2) * Chunk.WIDTH;
+            zs[i] = (random.nextInt(RADIUS * 2) - RADIUS) * Chunk.WIDTH;
+        }
+    }
+
+    @Override
+    public LongSupplier operation(String name) {
+        switch (name) {
+            case "longHashMap":
+                return () -> {
+                    int i = next++ & (LOOKUPS - 1);
+                    return packed.get(Chunk.key(xs[i], zs[i])) != null ? 1 : 0;
+                };
+            case "nestedHashMap":
+                return () -> {
+                    int i = next++ & (LOOKUPS - 1);
+                    HashMap<Integer, Object> row = nested.get(xs[i]);
+                    return row != null && row.get(zs[i]) != null ? 1 : 0;
+                };
+            default:
+                return null;
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Chunk codec throughput on the chunks of demo_world.bwe, or on generated chunks if it is not in the working directory
+ * One operation encodes or decodes one chunk, the payload sizes are printed during setup
+ */
+public class CodecWorkload implements benchmark.Workload {
+
+    private World world;
+    private List<Chunk> chunks;
+    private byte[][] plain, deflated;
+    private int next;
+
+    @Override
+    public void setup() throws IOException {
+        world = BenchmarkWorld.generated(8);
+        chunks = BenchmarkWorld.sample(world);
+        int count = chunks.size();
+        plain = new byte[count][];
+        deflated = new byte[count][];
+        long plainBytes = 0, deflatedBytes = 0;
+        for (int i = 0; i < count; i++) {
+            plain[i] = ChunkCodec.encode(chunks.get(i), false);
+            deflated[i] = ChunkCodec.encode(chunks.get(i), true);
+            plainBytes += plain[i].length;
+            deflatedBytes += deflated[i].length;
+        }
+        // Ratios in terms of the full id array a chunk stands for
+        double rawBytes = (double) Chunk.SECTIONS * Chunk.SECTION_SIZE * count;
+        System.out.printf("Palette + runs / packed: %d bytes (%.0fx)%nWith deflate level 1: %d bytes (%.0fx)%n",
+                plainBytes, rawBytes / plainBytes, deflatedBytes, rawBytes / deflatedBytes);
+    }
+
+    @Override
+    public LongSupplier operation(String name) {
+        switch (name) {
+            case "encode":
+                return () -> ChunkCodec.encode(chunks.get(next()), false).length;
+            case "encodeDeflated":
+                return () -> ChunkCodec.encode(chunks.get(next()), true).length;
+            case "decode":
+                return () -> decode(plain);
+            case "decodeDeflated":
+                return () -> decode(deflated);
+            default:
+                return null;
+        }
+    }
+
+    private long decode(byte[][] payloads) {
+        int i = next();
+        return ChunkCodec.decode(world, chunks.get(i).origin, ByteBuffer.wrap(payloads[i])).sections.length;
+    }
+
+    private int next() {
+        if (next == chunks.size()) next = 0;
+        return next++;
+    }
+
+}
@@ -0,0 +1,65 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+/**
+ * Decoding generated chunks with a few edits stored as deltas against the generator, which regenerates the chunk
+ * One operation decodes one chunk, the full and delta payload sizes are printed during setup
+ */
+public class DeltaWorkload implements benchmark.Workload {
+
+    private static final int CHUNKS = 16;
+    private static final int[] EDITS = {1, 100, 10000};
+
+    private World world;
+    private final List<List<Chunk>> chunks = new ArrayList<>();
+    private final List<List<byte[]>> deltas = new ArrayList<>();
+    private int next;
+
+    @Override
+    public void setup() {
+        world = World.headless(new HillWorldGenerator(42, 30, 15, 100f));
+        Random random = new Random(7);
+        BlockType[] types = BlockType.values();
+        for (int edits : EDITS) {
+            List<Chunk> edited = new ArrayList<>();
+            List<byte[]> payloads = new ArrayList<>();
+            long fullBytes = 0, deltaBytes = 0;
+            for (int i = 0; i < CHUNKS; i++) {
+                Chunk chunk = new Chunk(world, (i - CHUNKS / 2) * Chunk.WIDTH, 0, 4096);
+                world.worldGenerator.generate(world, chunk);
+                chunk.compact();
+                for (int e = 0; e < edits; e++) {
+                    chunk.setBlock(random.nextInt(Chunk.WIDTH), random.nextInt(64), random.nextInt(Chunk.WIDTH),
+                            types[1 + random.nextInt(types.length - 1)]);
+                }
+                edited.add(chunk);
+                fullBytes += ChunkCodec.encode(chunk, true).length;
+                byte[] delta = ChunkCodec.encodeDelta(chunk, true);
+                deltaBytes += delta.length;
+                payloads.add(delta);
+            }
+            chunks.add(edited);
+            deltas.add(payloads);
+            System.out.printf("%5d edits: full %6d bytes, delta %6d bytes (%.1fx smaller)%n",
+                    edits, fullBytes / CHUNKS, deltaBytes / CHUNKS, (double) fullBytes / deltaBytes);
+        }
+    }
+
+    @Override
+    public LongSupplier operation(String name) {
+        for (int row = 0; row < EDITS.length; row++) {
+            if (!name.equals("decode" + EDITS[row])) continue;
+            List<Chunk> edited = chunks.get(row);
+            List<byte[]> payloads = deltas.get(row);
+            return () -> {
+                int i = next++ % CHUNKS;
+                return ChunkCodec.decode(world, edited.get(i).origin, ByteBuffer.wrap(payloads.get(i))).sections.length;
+            };
+        }
+        return null;
+    }
+
+}
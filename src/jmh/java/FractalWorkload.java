@@ -0,0 +1,38 @@
+import java.util.function.LongSupplier;
+
+/**
+ * Fractal chunk generation on the coarse noise lattice, against sampling the density at every voxel
+ * One operation generates one chunk
+ * Determinism and how close the lattice stays to per voxel sampling are covered by FractalWorldGeneratorTest
+ */
+public class FractalWorkload implements benchmark.Workload {
+
+    private static final int CHUNKS = 16;
+
+    private final FractalWorldGenerator lattice = new FractalWorldGenerator(42, 64, 48, 200f, 4);
+    private final FractalWorldGenerator exact = new FractalWorldGenerator(42, 64, 48, 200f, 4, 1, 1);
+    private int next;
+
+    @Override
+    public void setup() {
+        System.out.printf("%d octaves, %dx%d noise lattice%n", lattice.octaves, lattice.cellWidth, lattice.cellHeight);
+    }
+
+    @Override
+    public LongSupplier operation(String name) {
+        switch (name) {
+            case "lattice":
+                return () -> lattice.generate(null, nextChunk()).sections.length;
+            case "voxels":
+                return () -> exact.generate(null, nextChunk()).sections.length;
+            default:
+                return null;
+        }
+    }
+
+    private Chunk nextChunk() {
+        int i = next++ % CHUNKS;
+        return new Chunk(null, (i - CHUNKS / 2) * Chunk.WIDTH, 0, i * Chunk.WIDTH);
+    }
+
+}
@@ -0,0 +1,62 @@
+import java.util.function.LongSupplier;
+
+/**
+ * Hill chunk generation filling whole columns, against setting every voxel through Chunk.setBlock as before
+ * One operation generates one chunk
+ */
+public class GenerationWorkload implements benchmark.Workload {
+
+    private static final int CHUNKS = 64;
+
+    private final HillWorldGenerator generator = new HillWorldGenerator(42, 30, 15, 100f);
+    private int next;
+
+    @Override
+    public void setup() {
+        // Both must make the same terrain
+        Chunk expected = generateByVoxel(generator, new Chunk(null, 0, 0, 0));
+        Chunk actual = generator.generate(null, new Chunk(null, 0, 0, 0));
+        int mismatches = 0;
+        for (int i = 0; i < Chunk.SECTIONS * Chunk.SECTION_SIZE; i++) {
+            if (expected.getBlockId(i) != actual.getBlockId(i)) mismatches++;
+        }
+        System.out.printf("Mismatching voxels: %d%n", mismatches);
+    }
+
+    @Override
+    public LongSupplier operation(String name) {
+        switch (name) {
+            case "columns":
+                return () -> generator.generate(null, nextChunk()).sections.length;
+            case "voxels":
+                return () -> generateByVoxel(generator, nextChunk()).sections.length;
+            default:
+                return null;
+        }
+    }
+
+    private Chunk nextChunk() {
+        return new Chunk(null, (next++ % CHUNKS) * Chunk.WIDTH, 0, 0);
+    }
+
+    /**
+     * The old hill generation as a baseline, every voxel set through Chunk.setBlock
+     */
+    private static Chunk generateByVoxel(HillWorldGenerator generator, Chunk chunk) {
+        for (int x = 0; x < Chunk.WIDTH; x++) {
+            for (int z = 0; z < Chunk.WIDTH; z++) {
+                float sample = OpenSimplex2.noise2(generator.seed, (chunk.origin.x + x) / generator.frequency, (chunk.origin.z + z) / generator.frequency);
+                int h = generator.height + (int) (sample * generator.amplitude);
+                for (int y = 0; y < h; y++) {
+                    if (y >= Chunk.HEIGHT) break;
+                    BlockType t = BlockType.STONE;
+                    if (y == h - 1) t = BlockType.GRASS;
+                    else if (y >= h - 5) t = BlockType.DIRT;
+                    chunk.setBlock(x, y, z, t);
+                }
+            }
+        }
+        return chunk;
+    }
+
+}
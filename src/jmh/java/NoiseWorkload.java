@@ -0,0 +1,68 @@
+import java.util.function.LongSupplier;
+
+/**
+ * OpenSimplex2 sampling with the batch grid and box evaluators, against one call per sample
+ * the way HillWorldGenerator sampled its columns before
+ * One operation samples one chunk: its columns in 2D, its lowest 64 layers in 3D
+ * That the values are the same is covered by OpenSimplex2Test
+ */
+public class NoiseWorkload implements benchmark.Workload {
+
+    private static final long SEED = 42;
+    private static final float FREQUENCY = 100f;
+    private static final int CHUNKS = 64;
+    private static final int WIDTH = Chunk.WIDTH, HEIGHT = 64;
+
+    private final float[] grid = new float[WIDTH * WIDTH];
+    private final float[] box = new float[WIDTH * HEIGHT * WIDTH];
+    private int next;
+
+    @Override
+    public void setup() {
+    }
+
+    @Override
+    public LongSupplier operation(String name) {
+        switch (name) {
+            case "noise2":
+                return () -> {
+                    int x0 = nextX();
+                    for (int z = 0; z < WIDTH; z++) {
+                        for (int x = 0; x < WIDTH; x++) {
+                            grid[z * WIDTH + x] = OpenSimplex2.noise2(SEED, (x0 + x) / FREQUENCY, z / FREQUENCY);
+                        }
+                    }
+                    return Float.floatToRawIntBits(grid[WIDTH + 1]);
+                };
+            case "noise2Grid":
+                return () -> {
+                    OpenSimplex2.noise2Grid(SEED, grid, nextX(), 0, WIDTH, WIDTH, FREQUENCY);
+                    return Float.floatToRawIntBits(grid[WIDTH + 1]);
+                };
+            case "noise3":
+                return () -> {
+                    int x0 = nextX();
+                    for (int y = 0, index = 0; y < HEIGHT; y++) {
+                        for (int z = 0; z < WIDTH; z++) {
+                            for (int x = 0; x < WIDTH; x++) {
+                                box[index++] = OpenSimplex2.noise3_ImproveXZ(SEED, (x0 + x) / FREQUENCY, y / FREQUENCY, z / FREQUENCY);
+                            }
+                        }
+                    }
+                    return Float.floatToRawIntBits(box[WIDTH + 1]);
+                };
+            case "noise3Box":
+                return () -> {
+                    OpenSimplex2.noise3Box(SEED, box, nextX(), 0, 0, WIDTH, HEIGHT, WIDTH, FREQUENCY);
+                    return Float.floatToRawIntBits(box[WIDTH + 1]);
+                };
+            default:
+                return null;
+        }
+    }
+
+    private int nextX() {
+        return (next++ % CHUNKS) * WIDTH;
+    }
+
+}
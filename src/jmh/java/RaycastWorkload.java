@@ -0,0 +1,90 @@
+import org.joml.Vector3f;
+
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+/**
+ * Raycasts in random directions from above the terrain, grid traversal against the old fixed step marcher
+ * One operation is one ray of the 100 unit selection range
+ */
+public class RaycastWorkload implements benchmark.Workload {
+
+    private static final int RAYS = 2048;
+    private static final float RANGE = 100f;
+    // Step size of the marcher baseline
+    private static final float MARCH_STEP = 0.005f;
+
+    private World world;
+    private final Vector3f origin = new Vector3f(0.5f, 60.5f, 0.5f);
+    private final Vector3f[] directions = new Vector3f[RAYS];
+    private final Raycast raycast = new Raycast();
+    private int next;
+
+    @Override
+    public void setup() {
+        world = BenchmarkWorld.generated(8);
+        Random random = new Random(42);
+        int agree = 0;
+        for (int i = 0; i < RAYS; i++) {
+            directions[i] = new Vector3f(random.nextFloat() * 2 - 1, random.nextFloat() * 2 - 1, random.nextFloat() * 2 - 1);
+            if (directions[i].lengthSquared() == 0) directions[i].set(0, -1, 0);
+            directions[i].normalize();
+            Block marched = march(world, origin, directions[i], RANGE);
+            Block traversed = raycast.cast(world, origin, directions[i], RANGE) ? raycast.getBlock(world) : null;
+            if (marched == null ? traversed == null : marched.equals(traversed)) agree++;
+        }
+        System.out.printf("Same hit for %d of %d rays%n", agree, RAYS);
+    }
+
+    @Override
+    public LongSupplier operation(String name) {
+        switch (name) {
+            case "traversal":
+                return () -> raycast.cast(world, origin, directions[next++ & (RAYS - 1)], RANGE) ? 1 : 0;
+            case "marcher":
+                return () -> march(world, origin, directions[next++ & (RAYS - 1)], RANGE) != null ? 1 : 0;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * The fixed step ray marcher Camera used before grid traversal, as a baseline
+     * Skips ahead through empty sections
+     */
+    private static Block march(World world, Vector3f position, Vector3f unit, float range) {
+        Vector3f direction = new Vector3f(unit);
+        for (float length = MARCH_STEP; length < range; length += MARCH_STEP) {
+            direction.normalize(length);
+            Vector3f wp = position.add(direction, new Vector3f());
+            int x = (int) Math.floor(wp.x);
+            int y = (int) Math.floor(wp.y);
+            int z = (int) Math.floor(wp.z);
+            if (y < 0 || y >= Chunk.HEIGHT) return null;
+            Chunk chunk = world.getLoadedChunk(x, z);
+            if (chunk == null || chunk.isSectionEmpty(y)) {
+                length += Math.max(sectionExitDistance(wp, unit, x, y, z) - 2 * MARCH_STEP, 0);
+            } else if (chunk.getBlockType(x - chunk.origin.x, y, z - chunk.origin.z) != null) {
+                return chunk.getBlock(x - chunk.origin.x, y, z - chunk.origin.z);
+            }
+        }
+        return null;
+    }
+
+    private static float sectionExitDistance(Vector3f wp, Vector3f unit, int x, int y, int z) {
+        int originX = Math.floorDiv(x, Chunk.WIDTH) * Chunk.WIDTH;
+        int originZ = Math.floorDiv(z, Chunk.WIDTH) * Chunk.WIDTH;
+        int sectionY = (y / Chunk.SECTION_HEIGHT) * Chunk.SECTION_HEIGHT;
+        float t = axisExitDistance(wp.x, unit.x, originX, originX + Chunk.WIDTH);
+        t = Math.min(t, axisExitDistance(wp.y, unit.y, sectionY, sectionY + Chunk.SECTION_HEIGHT));
+        t = Math.min(t, axisExitDistance(wp.z, unit.z, originZ, originZ + Chunk.WIDTH));
+        return t;
+    }
+
+    private static float axisExitDistance(float p, float d, float min, float max) {
+        if (d > 0) return (max - p) / d;
+        if (d < 0) return (min - p) / d;
+        return Float.MAX_VALUE;
+    }
+
+}
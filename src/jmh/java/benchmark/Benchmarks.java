@@ -0,0 +1,56 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Micro benchmarks of the editor, every case is a workload and one of its operations
+ * Each case runs in a JVM of its own, run a subset with e.g. -Djmh.args="-p name=noise.noise2,noise.noise2Grid"
+ * See the workloads for what one operation is
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class Benchmarks {
+
+    @Param({
+            "chunkmap.longHashMap", "chunkmap.nestedHashMap",
+            "raycast.traversal", "raycast.marcher",
+            "archive.mapped", "archive.remapped", "archive.voxels",
+            "codec.encode", "codec.encodeDeflated", "codec.decode", "codec.decodeDeflated",
+            "delta.decode1", "delta.decode100", "delta.decode10000",
+            "generation.columns", "generation.voxels",
+            "noise.noise2", "noise.noise2Grid", "noise.noise3", "noise.noise3Box",
+            "fractal.lattice", "fractal.voxels"
+    })
+    public String name;
+
+    private Workload workload;
+    private LongSupplier operation;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        int dot = name.indexOf('.');
+        String workloadName = name.substring(0, dot);
+        workload = Workload.create(Character.toUpperCase(workloadName.charAt(0)) + workloadName.substring(1) + "Workload");
+        workload.setup();
+        operation = workload.operation(name.substring(dot + 1));
+        if (operation == null) throw new IllegalArgumentException("Unknown benchmark " + name);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        workload.tearDown();
+    }
+
+    @Benchmark
+    public long run() {
+        return operation.getAsLong();
+    }
+
+}
@@ -0,0 +1,52 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Benchmarks of workloads reading from the storage device, with the page cache dropped before every operation
+ * Every iteration is a single operation, dropping the page cache needs root on Linux
+ * Run with: mvn test-compile exec:exec -Djmh.args="ColdBenchmarks"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ColdBenchmarks {
+
+    @Param({"archive.mapped", "archive.voxels"})
+    public String name;
+
+    private Workload workload;
+    private LongSupplier operation;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        int dot = name.indexOf('.');
+        String workloadName = name.substring(0, dot);
+        workload = Workload.create(Character.toUpperCase(workloadName.charAt(0)) + workloadName.substring(1) + "Workload");
+        workload.setup();
+        operation = workload.operation(name.substring(dot + 1));
+        if (operation == null) throw new IllegalArgumentException("Unknown benchmark " + name);
+    }
+
+    @Setup(Level.Iteration)
+    public void evict() throws Exception {
+        workload.evict();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        workload.tearDown();
+    }
+
+    @Benchmark
+    public long run() {
+        return operation.getAsLong();
+    }
+
+}
@@ -0,0 +1,50 @@
+package benchmark;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Code measured by a benchmark
+ * JMH does not accept benchmarks in the default package, where all classes of the editor live,
+ * so workloads are implemented there and looked up by name from the benchmarks in this package
+ */
+public interface Workload {
+
+    /**
+     * Prepare everything the operations work on, called once per trial
+     * @throws Exception
+     */
+    void setup() throws Exception;
+
+    /**
+     * The operation with the given name
+     * @param name
+     * @return operation, its result must be consumed so the JIT can not drop the work
+     */
+    LongSupplier operation(String name);
+
+    /**
+     * Drop what the operations read from the page cache, so the next operation reads from the device
+     * @throws Exception if the workload does not support it, or the page cache can not be dropped
+     */
+    default void evict() throws Exception {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " has no cold runs");
+    }
+
+    /**
+     * Release what setup created
+     * @throws Exception
+     */
+    default void tearDown() throws Exception {
+    }
+
+    /**
+     * Create the workload implemented by the given class of the default package
+     * @param className
+     * @return
+     * @throws ReflectiveOperationException
+     */
+    static Workload create(String className) throws ReflectiveOperationException {
+        return (Workload) Class.forName(className).getDeclaredConstructor().newInstance();
+    }
+
+}
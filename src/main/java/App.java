@@ -177,22 +177,34 @@ public class App {
         previousFrameHadCursor = true;
     }
 
+    /**
+     * Generator for a new world, hills unless -Dgenerator=fractal asks for 3D fractal terrain
+     * @return
+     */
+    private static WorldGenerator newWorldGenerator() {
+        if (System.getProperty("generator", "hill").equals("fractal")) {
+            return new FractalWorldGenerator(System.currentTimeMillis(), 64, 48, 200f, 4);
+        }
+        return new HillWorldGenerator(System.currentTimeMillis(), 30, 15, 100f);
+    }
+
     /**
      * Contains the main game loop
      */
     public void loop() {
 
-        // Make a world instance with some blocks
-        world = new World(this, new HillWorldGenerator(System.currentTimeMillis(), 30, 15, 100f));
+        // Pick up the edits of the last session, or make a world instance with some blocks
+        world = EditJournal.recover(this);
+        boolean recovered = world != null;
+        if (!recovered) world = new World(this, newWorldGenerator());
 
-        // Make sure initial world is rendered, because spawning without chunks is bad
-        int generating = world.manageChunks();
-        // Just loop disgustingly until all dispatches are done
-        while (world.chunks.size() < generating) {
-            world.gatherChunks();
-        }
+        // Make sure the spawn area is there, because spawning without chunks is bad
+        world.loadSpawn();
 
-        world.camera.position.y = 250f;
+        if (!recovered) {
+            world.camera.position.y = 250f;
+            EditJournal.start(world, null);
+        }
 
         glfwMaximizeWindow(window.getWindow());
 
@@ -262,6 +274,8 @@ public class App {
                 world.gatherChunks();
                 // Make sure chunks around the player are generated
                 world.manageChunks();
+                // Checkpoint journaled edits every so often
+                EditJournal.maybeCompact(world);
             }
 
             // All nano vg rendering must occur before this call
@@ -324,7 +338,9 @@ public class App {
         nvgFontSize(vg, fontSize);
         nvgFontFace(vg, "sans");
         nvgFillColor(vg, nvgRGBAf(1, 1, 1, 0.5f, NVGColor.create()));
-        nvgText(vg, 20, y, "Vertices rendered: " + Renderer.verticesRendered);
+        nvgText(vg, 20, y, "Vertices rendered: " + Renderer.verticesRendered + (world.greedyMeshing ?
+                String.format(" (%d without greedy meshing, %.1fx)", Renderer.naiveVerticesRendered,
+                        (float) Renderer.naiveVerticesRendered / Math.max(Renderer.verticesRendered, 1)) : ""));
         y += 15;
         // # Rendered chunks
         nvgBeginPath(vg);
@@ -345,9 +361,52 @@ public class App {
         nvgFontSize(vg, fontSize);
         nvgFontFace(vg, "sans");
         nvgFillColor(vg, nvgRGBAf(1, 1, 1, 0.5f, NVGColor.create()));
-        int nrChunks = (world.worldGenerator != null) ? world.worldGenerator.jobs.size() : 0;
         nvgText(vg, 20, y, "Chunks loading: " + ((world.worldGenerator != null) ? world.worldGenerator.jobs.size() : "-"));
         y += 15;
+        // Worker pool usage
+        nvgBeginPath(vg);
+        nvgFontSize(vg, fontSize);
+        nvgFontFace(vg, "sans");
+        nvgFillColor(vg, nvgRGBAf(1, 1, 1, 0.5f, NVGColor.create()));
+        nvgText(vg, 20, y, String.format("Workers: %d active, %d queued (%d cpu threads%s)", Workers.activeWorkers(),
+                Workers.queueDepth(), Workers.COMPUTE_THREADS, Workers.isIoVirtual() ? ", virtual io" : ""));
+        y += 15;
+        // Write behind archive queue
+        nvgBeginPath(vg);
+        nvgFontSize(vg, fontSize);
+        nvgFontFace(vg, "sans");
+        nvgFillColor(vg, nvgRGBAf(1, 1, 1, 0.5f, NVGColor.create()));
+        nvgText(vg, 20, y, String.format("Archive: %d pending (%.1f MB), %d hits, %d misses",
+                ChunkArchiver.pendingCount(), ChunkArchiver.pendingBytes() / (1024f * 1024f),
+                ChunkArchiver.hits, ChunkArchiver.misses));
+        y += 15;
+        // Cache of generated chunks
+        nvgBeginPath(vg);
+        nvgFontSize(vg, fontSize);
+        nvgFontFace(vg, "sans");
+        nvgFillColor(vg, nvgRGBAf(1, 1, 1, 0.5f, NVGColor.create()));
+        nvgText(vg, 20, y, String.format("Generation cache: %d chunks (%.1f MB), %d hits, %d misses",
+                WorldGenerator.generated.size(), WorldGenerator.generated.byteSize() / (1024f * 1024f),
+                WorldGenerator.cacheHits.get(), WorldGenerator.cacheMisses.get()));
+        y += 15;
+        // Generation time
+        int generatedChunks = WorldGenerator.generatedChunks.get();
+        nvgBeginPath(vg);
+        nvgFontSize(vg, fontSize);
+        nvgFontFace(vg, "sans");
+        nvgFillColor(vg, nvgRGBAf(1, 1, 1, 0.5f, NVGColor.create()));
+        nvgText(vg, 20, y, String.format("Generation: %d chunks, %.2f ms/chunk, %.2f ms slowest", generatedChunks,
+                (generatedChunks == 0) ? 0 : WorldGenerator.generationNanos.get() / 1e6 / generatedChunks,
+                WorldGenerator.slowestGenerationNanos.get() / 1e6));
+        y += 15;
+        // Edit journal
+        nvgBeginPath(vg);
+        nvgFontSize(vg, fontSize);
+        nvgFontFace(vg, "sans");
+        nvgFillColor(vg, nvgRGBAf(1, 1, 1, 0.5f, NVGColor.create()));
+        nvgText(vg, 20, y, String.format("Journal: %d edits, %.1f KB since checkpoint, %d checkpoints",
+                EditJournal.edits, EditJournal.journalBytes / 1024f, EditJournal.compactions));
+        y += 15;
         // # lights rendered
         nvgBeginPath(vg);
         nvgFontSize(vg, fontSize);
@@ -470,6 +529,7 @@ public class App {
             h.append("Graphics:\n");
             h.append("render wireframe <on/off>    Toggle wireframe rendering\n");
             h.append("render distance <distance>    Set render distance [0,-]\n");
+            h.append("render greedy <on/off>    Toggle greedy meshing for this world\n");
             h.append("vsync <on/off>    Toggle vsync\n");
             h.append("Editing:\n");
             h.append("time <time>    Set time to <time> [0,2399]\n");
@@ -495,6 +555,11 @@ public class App {
             // Wireframe toggle
             if (command.equals("render wireframe on")) wireframe = true;
             else if (command.equals("render wireframe off")) wireframe = false;
+            // Greedy meshing toggle, remesh all loaded chunks
+            else if (command.equals("render greedy on") || command.equals("render greedy off")) {
+                world.greedyMeshing = command.endsWith("on");
+                for (Chunk c : world.chunks) c.regenerateMesh();
+            }
             // Set render distance
             else if (command.startsWith("render distance")) {
                 String[] split = command.split(" ");
@@ -597,6 +662,7 @@ public class App {
      * Terminate the app, doing a proper clean up
      */
     public void terminate() {
+        EditJournal.close(world);
         nvgDelete(vg);
         // Clear any window callbacks
         glfwFreeCallbacks(window.getWindow());
@@ -1,9 +1,7 @@
 import org.joml.Vector3i;
 
-import java.io.File;
-
 /**
- * Runnable job to archive a chunk to disk
+ * Runnable job to load an archived chunk from disk or the imported world file
  */
 public class ArchiveFetchJob implements Runnable {
 
@@ -17,18 +15,14 @@ public class ArchiveFetchJob implements Runnable {
 
     @Override
     public void run() {
-        // Fetch the file
-        ChunkArchiver.unloadedChunksLock.lock();
-        File file = ChunkArchiver.unloadedChunks.remove(key);
-        ChunkArchiver.unloadedChunksLock.unlock();
-        // Load the chunk
-        Chunk chunk = Chunk.fromFile(world, key, file);
-        chunk.calculateMesh();
-        // Remove the file
-        file.delete();
-        // Add it to queue
-        ChunkArchiver.chunkQueueLock.lock();
-        ChunkArchiver.chunkQueue.add(chunk);
-        ChunkArchiver.chunkQueueLock.unlock();
+        Chunk chunk = ChunkArchiver.fetch(world, key);
+        // Its payload stays archived, show the generated terrain in its place if there is any
+        if (chunk == null) chunk = world.fallbackChunk(key);
+        if (chunk == null) {
+            ChunkArchiver.markUnreadable(key);
+            return;
+        }
+        // Meshing is cpu work, hand it to the compute workers
+        ChunkArchiver.meshAndQueue(chunk);
     }
 }
@@ -1,24 +1,28 @@
-import java.io.File;
+import java.io.IOException;
+import java.util.List;
 
 /**
- * Runnable job to archive a chunk to disk
+ * Runnable job to write a batch of chunks from the write behind queue to disk
  */
 public class ArchivePutJob implements Runnable {
 
-    public Chunk chunk;
+    public List<ChunkArchiver.PendingChunk> batch;
 
-    public ArchivePutJob(Chunk chunk) {
-        this.chunk = chunk;
+    public ArchivePutJob(List<ChunkArchiver.PendingChunk> batch) {
+        this.batch = batch;
     }
 
     @Override
     public void run() {
-        // Convert chunk to file
-        File file = Chunk.toFile(chunk);
-        file.deleteOnExit();
-        // Add to archive
-        ChunkArchiver.unloadedChunksLock.lock();
-        ChunkArchiver.unloadedChunks.put(chunk.origin, file);
-        ChunkArchiver.unloadedChunksLock.unlock();
+        for (ChunkArchiver.PendingChunk pending : batch) {
+            // Uncompressed so fetches decode from the mapping, and only the edits to the generated terrain
+            byte[] data = ChunkCodec.encodeDelta(pending.chunk, false);
+            try {
+                ChunkArchiver.write(pending, data);
+            } catch (IOException e) {
+                // Leave it in the write behind queue, it is still there in memory
+                e.printStackTrace();
+            }
+        }
     }
 }
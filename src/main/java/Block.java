@@ -60,7 +60,8 @@ enum BlockType {
 }
 
 /**
- * Representation of a block in game
+ * Handle to a block in game
+ * Chunks only store block type ids, so a block is identified by its chunk and index in that chunk's storage
  */
 public class Block {
 
@@ -88,44 +89,59 @@ public class Block {
     // A selected block has this texture coordinate
     static final Vector2i selectTextureLocation = new Vector2i(9, 1);
 
-    // Type of block determines texture
-    public BlockType type;
-
-    // Chunk stuff
-    // Which faces are rendering
-    public byte faceField;
-    // Block position inside chunk
-    public short inChunkX;
-    public short inChunkY;
-    public short inChunkZ;
     // Parent chunk
-    public Chunk chunk;
+    public final Chunk chunk;
+    // Index of the block in the chunk's storage, see Chunk.index()
+    public final int index;
 
     /**
-     * Create a block at position with type
-     * @param type type of block
+     * Create a handle to the block at index in chunk
+     * @param chunk parent chunk
+     * @param index storage index inside the chunk
      */
-    public Block(BlockType type) {
-        this.faceField = (byte) 0;
-        this.type = type;
-        for (int f = 0; f < 6; f++) setFace(f, true);
+    public Block(Chunk chunk, int index) {
+        this.chunk = chunk;
+        this.index = index;
     }
 
-    public void setFace(int index, boolean value) {
-        if (value) {
-            faceField |= 1 << index;
-        } else {
-            faceField &= ~(1 << index);
-        }
+    /**
+     * Type of block, read from chunk storage
+     * @return block type, null if the block has been removed
+     */
+    public BlockType getType() {
+        byte id = chunk.getBlockId(index);
+        return (id == BlockStorage.AIR) ? null : BlockType.type(id);
+    }
+
+    // Block position inside chunk
+    public int getLocalX() {
+        return Chunk.localX(index);
+    }
+
+    public int getLocalY() {
+        return Chunk.localY(index);
     }
 
-    public boolean getFace(int index) {
-        return ((faceField >> index) & 1) == 1;
+    public int getLocalZ() {
+        return Chunk.localZ(index);
     }
 
     public Vector3f getPosition() {
         Vector3i c = this.chunk.origin;
-        return new Vector3f(c.x + inChunkX, c.y + inChunkY, c.z + inChunkZ);
+        return new Vector3f(c.x + getLocalX(), c.y + getLocalY(), c.z + getLocalZ());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Block)) return false;
+        Block other = (Block) o;
+        return chunk == other.chunk && index == other.index;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * System.identityHashCode(chunk) + index;
     }
 
     // Vertex positions per face
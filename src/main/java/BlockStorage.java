@@ -0,0 +1,254 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Palette compressed storage of block type ids
+ * Every voxel holds an index into a small palette of block type ids,
+ * and those indices are bit packed into longs
+ */
+public class BlockStorage {
+
+    // Block type id of an empty voxel
+    public static final byte AIR = 0;
+    // Smallest number of bits per voxel, enough for all current block types
+    public static final int MIN_BITS = 4;
+
+    // Number of voxels in this storage
+    private final int size;
+
+    // Palette of block type ids
+    private byte[] palette;
+    private int paletteSize;
+
+    // Bit packed palette indices, entries never span two longs
+    // null while the storage is uniform, every voxel then holds palette[0]
+    private long[] data;
+    private int bits;
+    private int entriesPerLong;
+    private long mask;
+
+    // Number of non air voxels
+    private int count;
+
+    /**
+     * Create an empty storage
+     * @param size number of voxels
+     */
+    public BlockStorage(int size) {
+        this(size, AIR);
+    }
+
+    /**
+     * Create a storage with every voxel set to id
+     * @param size number of voxels
+     * @param id block type id to fill with
+     */
+    public BlockStorage(int size, byte id) {
+        this.size = size;
+        makeUniform(id);
+    }
+
+    /**
+     * Create a storage from size block type ids read from the buffer,
+     * packing them directly instead of setting voxel by voxel
+     * @param size number of voxels
+     * @param ids buffer positioned at the first id, advanced past the last one
+     */
+    public BlockStorage(int size, ByteBuffer ids) {
+        this.size = size;
+        makeUniform(AIR);
+        this.data = new long[(size + entriesPerLong - 1) / entriesPerLong];
+        // Palette index per id, AIR is palette index 0 and the packed data starts out zeroed
+        int[] lookup = new int[256];
+        Arrays.fill(lookup, -1);
+        lookup[AIR & 0xFF] = 0;
+        int start = ids.position();
+        for (int i = 0; i < size; i++) {
+            byte id = ids.get(start + i);
+            if (id == AIR) continue;
+            int paletteIndex = lookup[id & 0xFF];
+            if (paletteIndex < 0) {
+                paletteIndex = paletteIndexOf(id);
+                lookup[id & 0xFF] = paletteIndex;
+            }
+            setPaletteIndex(i, paletteIndex);
+            count++;
+        }
+        ids.position(start + size);
+        compact();
+    }
+
+    /**
+     * Create a copy of another storage
+     * @param other
+     */
+    public BlockStorage(BlockStorage other) {
+        this.size = other.size;
+        this.palette = other.palette.clone();
+        this.paletteSize = other.paletteSize;
+        this.data = (other.data == null) ? null : other.data.clone();
+        setBits(other.bits);
+        this.count = other.count;
+    }
+
+    private void makeUniform(byte id) {
+        this.palette = new byte[1 << MIN_BITS];
+        this.palette[0] = id;
+        this.paletteSize = 1;
+        this.data = null;
+        setBits(MIN_BITS);
+        this.count = (id == AIR) ? 0 : size;
+    }
+
+    private void setBits(int bits) {
+        this.bits = bits;
+        this.entriesPerLong = 64 / bits;
+        this.mask = (1L << bits) - 1;
+    }
+
+    /**
+     * Get the block type id at the given index
+     * @param index voxel index
+     * @return block type id, AIR if empty
+     */
+    public byte get(int index) {
+        if (data == null) return palette[0];
+        return palette[getPaletteIndex(index)];
+    }
+
+    /**
+     * Set the block type id at the given index
+     * @param index voxel index
+     * @param id block type id, AIR to empty the voxel
+     * @return the previous block type id
+     */
+    public byte set(int index, byte id) {
+        byte previous = get(index);
+        if (previous == id) return previous;
+        // Leaving the uniform state, every voxel starts out at palette index 0
+        if (data == null) data = new long[(size + entriesPerLong - 1) / entriesPerLong];
+        setPaletteIndex(index, paletteIndexOf(id));
+        if (previous == AIR) count++;
+        else if (id == AIR) count--;
+        return previous;
+    }
+
+    /**
+     * Collapse the storage to the uniform representation if every voxel holds the same id
+     * @return is the storage uniform
+     */
+    public boolean compact() {
+        if (data == null) return true;
+        if (count == 0) {
+            makeUniform(AIR);
+            return true;
+        }
+        if (count != size) return false;
+        byte first = get(0);
+        for (int i = 1; i < size; i++) {
+            if (get(i) != first) return false;
+        }
+        makeUniform(first);
+        return true;
+    }
+
+    /**
+     * Might a voxel hold the id, false means it certainly does not
+     * @param id
+     * @return
+     */
+    public boolean mayContain(byte id) {
+        for (int i = 0; i < paletteSize; i++) {
+            if (palette[i] == id) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Does every voxel hold the same id, without any packed data
+     * @return
+     */
+    public boolean isUniform() {
+        return data == null;
+    }
+
+    /**
+     * Number of non air voxels
+     * @return
+     */
+    public int count() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Current number of bits used per voxel, 0 if uniform
+     * @return
+     */
+    public int bitsPerEntry() {
+        return (data == null) ? 0 : bits;
+    }
+
+    /**
+     * Approximate number of bytes held by this storage
+     * @return
+     */
+    public int byteSize() {
+        return ((data == null) ? 0 : data.length * Long.BYTES) + palette.length;
+    }
+
+    private int getPaletteIndex(int index) {
+        int shift = (index % entriesPerLong) * bits;
+        return (int) ((data[index / entriesPerLong] >>> shift) & mask);
+    }
+
+    private void setPaletteIndex(int index, int paletteIndex) {
+        int word = index / entriesPerLong;
+        int shift = (index % entriesPerLong) * bits;
+        data[word] = (data[word] & ~(mask << shift)) | ((long) paletteIndex << shift);
+    }
+
+    /**
+     * Find the palette index of the id, adding it to the palette if necessary
+     * @param id
+     * @return
+     */
+    private int paletteIndexOf(byte id) {
+        for (int i = 0; i < paletteSize; i++) {
+            if (palette[i] == id) return i;
+        }
+        // Grow the packed data if the palette no longer fits the current bit width
+        if (paletteSize == (1 << bits)) resize(bits + 1);
+        palette[paletteSize] = id;
+        return paletteSize++;
+    }
+
+    /**
+     * Repack all entries with the given number of bits
+     * @param newBits
+     */
+    private void resize(int newBits) {
+        int oldBits = bits;
+        int oldEntriesPerLong = entriesPerLong;
+        long oldMask = mask;
+        long[] oldData = data;
+        setBits(newBits);
+        long[] newData = new long[(size + entriesPerLong - 1) / entriesPerLong];
+        for (int i = 0; i < size; i++) {
+            long value = (oldData[i / oldEntriesPerLong] >>> ((i % oldEntriesPerLong) * oldBits)) & oldMask;
+            newData[i / entriesPerLong] |= value << ((i % entriesPerLong) * bits);
+        }
+        byte[] newPalette = new byte[1 << newBits];
+        System.arraycopy(palette, 0, newPalette, 0, paletteSize);
+        palette = newPalette;
+        data = newData;
+    }
+
+}
@@ -1,6 +1,5 @@
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
-import org.joml.Vector3i;
 import org.json.JSONObject;
 import org.lwjgl.BufferUtils;
 
@@ -44,7 +43,13 @@ public class Camera {
     public float zNear = 0.1f;
     public float zFar = 1000f;
     public float clickRange = 10f;
-    public float marchStep = 0.005f;
+
+    // Reused for crosshair raycasts
+    private final Raycast raycast = new Raycast();
+    // Body of the camera, 1.65 high with the eyes near the top
+    private final Collider collider = new Collider(0.15f, 1.5f, 0.15f);
+    // Movement of the current frame
+    private final Vector3f step = new Vector3f();
 
 
 
@@ -62,69 +67,17 @@ public class Camera {
      * @param dt
      */
     private void applyVelocity(double dt) {
-        Vector3f step = velocity.mul((float) dt, new Vector3f());
-        // We will collide
-        float[] yoffsets = new float[]{-1.5f, -1.0f, -0.5f, 0f, 0.15f};
-        float[] xzoffsets = new float[]{-0.15f, 0f, 0.15f};
-        boolean colliding = false;
-        for (float y : yoffsets) {
-            for (float x : xzoffsets) {
-                for (float z : xzoffsets) {
-                    colliding = colliding || world.getBlockFromPosition(position.add(new Vector3f(step.x + x, step.y + y, step.z + z), new Vector3f())) != null;
-                }
-            }
-        }
-        // We will collide
-        if (colliding) {
-            // Apply movement axis per axis and check for collision
-            // Y axis
-            boolean yColliding = false;
-            for (float y : yoffsets) {
-                for (float x : xzoffsets) {
-                    for (float z : xzoffsets) {
-                        yColliding = yColliding || world.getBlockFromPosition(position.add(new Vector3f(x, step.y + y, z), new Vector3f())) != null;
-                    }
-                }
-            }
-            if (yColliding) {
-                position.y = (float) Math.floor(position.y) - (yoffsets[0] % 1f);
-                isAirborne = false;
-                velocity.y = 0;
-            } else {
-                position.y = position.y + step.y;
-                isAirborne = true;
-            }
-            boolean xColliding = false;
-            for (float y : yoffsets) {
-                for (float x : xzoffsets) {
-                    for (float z : xzoffsets) {
-                        xColliding = xColliding || world.getBlockFromPosition(position.add(new Vector3f(step.x + x, y, z), new Vector3f())) != null;
-                    }
-                }
-            }
-            if (xColliding) {
-                position.x = (float) ((step.x < 0) ? (Math.floor(position.x) - xzoffsets[0] + 0.005f) : (Math.ceil(position.x)) + xzoffsets[0] - 0.005f);
-                velocity.x = 0;
-            } else {
-                position.x = position.x + step.x;
-            }
-            boolean zColliding = false;
-            for (float y : yoffsets) {
-                for (float x : xzoffsets) {
-                    for (float z : xzoffsets) {
-                        zColliding = zColliding || world.getBlockFromPosition(position.add(new Vector3f(x, y, step.z + z), new Vector3f())) != null;
-                    }
-                }
-            }
-            if (zColliding) {
-                position.z = (float) ((step.z < 0) ? (Math.floor(position.z) - xzoffsets[0] + 0.005f) : (Math.ceil(position.z)) + xzoffsets[0] - 0.005f);
-                velocity.z = 0;
-            } else {
-                position.z = position.z + step.z;
-            }
+        velocity.mul((float) dt, step);
+        collider.move(world, position, step);
+        if (collider.hitY) {
+            // Landed on a block, or bumped into one above
+            if (step.y < 0) isAirborne = false;
+            velocity.y = 0;
         } else {
-            translate(step);
+            isAirborne = true;
         }
+        if (collider.hitX) velocity.x = 0;
+        if (collider.hitZ) velocity.z = 0;
     }
 
     /**
@@ -252,29 +205,9 @@ public class Camera {
      * @return world space coordinate of new block
      */
     public Vector3f getBlockPlaceCoordinatesAtCrosshair(App app, World world) {
-        Vector3f direction = getDirection();
-        // March a ray until we hit a block
-        Chunk previous = null;
-        Vector3i previousCoords = new Vector3i();
-        for (float length = marchStep; length < clickRange; length += marchStep) {
-            direction.normalize(length);
-            Vector3f wp = position.add(direction, new Vector3f());
-            Chunk chunk = world.getChunkFromPosition(wp);
-            if (previous == null) previous = chunk;
-            int x = (int) Math.floor(wp.x) % Chunk.WIDTH;
-            int y = (int) Math.floor(wp.y) % Chunk.HEIGHT;
-            int z = (int) Math.floor(wp.z) % Chunk.WIDTH;
-            if (x < 0) x += Chunk.WIDTH;
-            if (z < 0) z += Chunk.WIDTH;
-            if (y < 0 || y >= Chunk.HEIGHT) return null;
-            if (chunk.blocks[x][z][y] != null) {
-                // Backtrack to previous ray position and return
-                return new Vector3f(previous.origin.x + previousCoords.x, previous.origin.y + previousCoords.y, previous.origin.z + previousCoords.z);
-            }
-            previous = chunk;
-            previousCoords = new Vector3i(x, y, z);
-        }
-        return null;
+        if (!raycast.cast(world, position, getDirection(), clickRange) || !raycast.hasPrevious) return null;
+        // The empty block right in front of the hit face
+        return new Vector3f(raycast.previous.x, raycast.previous.y, raycast.previous.z);
     }
 
     /**
@@ -284,23 +217,8 @@ public class Camera {
      * @return
      */
     public Block getBlockAtCrosshair(App app, World world, float range) {
-        Vector3f direction = getDirection();
-        // March a ray until we hit a block
-        for (float length = marchStep; length < range; length += marchStep) {
-            direction.normalize(length);
-            Vector3f wp = position.add(direction, new Vector3f());
-            Chunk chunk = world.getChunkFromPosition(wp);
-            int x = (int) Math.floor(wp.x) % Chunk.WIDTH;
-            int y = (int) Math.floor(wp.y) % Chunk.HEIGHT;
-            int z = (int) Math.floor(wp.z) % Chunk.WIDTH;
-            if (x < 0) x += Chunk.WIDTH;
-            if (z < 0) z += Chunk.WIDTH;
-            if (y < 0 || y >= Chunk.HEIGHT) return null;
-            if (chunk.blocks[x][z][y] != null) {
-                return chunk.blocks[x][z][y];
-            }
-        }
-        return null;
+        if (!raycast.cast(world, position, getDirection(), range)) return null;
+        return raycast.getBlock(world);
     }
 
     /**
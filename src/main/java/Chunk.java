@@ -1,19 +1,17 @@
 import org.joml.Matrix4f;
-import org.joml.Vector2f;
 import org.joml.Vector3f;
 import org.joml.Vector3i;
-import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL15;
-import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
 
 import java.io.*;
-import java.nio.FloatBuffer;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -25,21 +23,28 @@ public class Chunk {
     // Chunk dimensions WIDTH x WIDTH x HEIGHT
     public static final int WIDTH = 32;
     public static final int HEIGHT = 256;
+    // Chunks are split into vertical sections of WIDTH x WIDTH x SECTION_HEIGHT
+    public static final int SECTION_HEIGHT = 16;
+    public static final int SECTIONS = HEIGHT / SECTION_HEIGHT;
+    public static final int SECTION_SIZE = WIDTH * WIDTH * SECTION_HEIGHT;
 
+    // Offset to the neighbouring block per face, in the face order of Block.faceVertices
+    static final int[][] FACE_OFFSETS = new int[][]{
+            {0, 0, -1}, {1, 0, 0}, {0, 0, 1}, {-1, 0, 0}, {0, 1, 0}, {0, -1, 0}
+    };
     // Chunk parent world
     public World world;
 
     public Lock lock;
 
-    // 3d grid of blocks: x z y
-    public Block[][][] blocks;
+    // Palette compressed block type ids per section, null if the section is empty
+    public BlockStorage[] sections;
     // Origin of the chunk in the world
     public Vector3i origin;
 
     public boolean modified;
-
-    // List of all blocks in the chunk, for easy iteration
-    List<Block> blockList;
+    // Generated in place of an archived chunk that could not be read, never cached as generator output
+    public boolean fallback;
 
     // List of all lights in the chunk
     public HashMap<Vector3f, Light> lightsMap = new HashMap<>();
@@ -48,19 +53,27 @@ public class Chunk {
     public boolean meshReady;
     public int mesh;
     public int vertexCount;
+    // Vertices the mesh would have without merging faces
+    public int naiveVertexCount;
     private List<Integer> vbos;
 
-    // Hold mesh data during the time between calculating and loading to gpu
-    private List<Float> positions;
-    private List<Float> textureCoords;
-    private List<Float> normals;
+    // Hold interleaved mesh data during the time between calculating and loading to gpu
+    private ByteBuffer meshData;
+
+    // Idle buffers for the ids of a chunk being filled by columns, pooled rather than per thread
+    // as baselines may be generated on short lived virtual io threads
+    private static final int MAX_POOLED_FILLS = Workers.COMPUTE_THREADS + Workers.VIRTUAL_IO_THREADS;
+    private static final ConcurrentLinkedQueue<byte[]> fillBuffers = new ConcurrentLinkedQueue<>();
+    // Buffer while being filled by columns, null otherwise
+    private byte[] fill;
+    // Sections touched by the fill so far
+    private int fillSections;
 
     public Chunk(World world, int x, int y, int z) {
         this.world = world;
         this.origin = new Vector3i(x, y, z);
-        this.blocks = new Block[WIDTH][WIDTH][HEIGHT];
+        this.sections = new BlockStorage[SECTIONS];
         this.vbos = new ArrayList<>();
-        this.blockList = new ArrayList<>();
         this.meshReady = false;
         this.lock = new ReentrantLock(true);
     }
@@ -81,88 +94,304 @@ public class Chunk {
         return new Vector3i(x, y, z);
     }
 
-    public Block removeBlock(int x, int y, int z) {
+    /**
+     * Packed key of the chunk with the given origin, for LongHashMap lookups
+     * @param originX world x of the chunk origin
+     * @param originZ world z of the chunk origin
+     * @return chunk x in the high and chunk z in the low 32 bits
+     */
+    public static long key(int originX, int originZ) {
+        return ((long) Math.floorDiv(originX, WIDTH) << 32) | (Math.floorDiv(originZ, WIDTH) & 0xFFFFFFFFL);
+    }
+
+    public static long key(Vector3i origin) {
+        return key(origin.x, origin.z);
+    }
+
+    // Origin of a packed chunk key
+    public static int keyOriginX(long key) {
+        return (int) (key >> 32) * WIDTH;
+    }
+
+    public static int keyOriginZ(long key) {
+        return (int) key * WIDTH;
+    }
+
+    /**
+     * Packed key of this chunk
+     * @return
+     */
+    public long key() {
+        return key(origin.x, origin.z);
+    }
+
+    /**
+     * Index of local coords x y z in the block storage
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public static int index(int x, int y, int z) {
+        return (y * WIDTH + z) * WIDTH + x;
+    }
+
+    /**
+     * Get the block type id at the given storage index
+     * @param index
+     * @return block type id, AIR if empty
+     */
+    public byte getBlockId(int index) {
+        BlockStorage section = sections[index / SECTION_SIZE];
+        if (section == null) return BlockStorage.AIR;
+        return section.get(index % SECTION_SIZE);
+    }
+
+    /**
+     * Set the block type id at the given storage index, creating or dropping sections as needed
+     * Caller must hold the lock
+     * @param index
+     * @param id
+     * @return the previous block type id
+     */
+    private byte setBlockId(int index, byte id) {
+        int s = index / SECTION_SIZE;
+        BlockStorage section = sections[s];
+        if (section == null) {
+            if (id == BlockStorage.AIR) return BlockStorage.AIR;
+            section = new BlockStorage(SECTION_SIZE);
+            sections[s] = section;
+        }
+        byte previous = section.set(index % SECTION_SIZE, id);
+        if (section.isEmpty()) sections[s] = null;
+        return previous;
+    }
+
+    /**
+     * Get the type of the block at local coords x y z
+     * @param x
+     * @param y
+     * @param z
+     * @return block type, null if there is no block
+     */
+    public BlockType getBlockType(int x, int y, int z) {
+        byte id = getBlockId(index(x, y, z));
+        return (id == BlockStorage.AIR) ? null : BlockType.type(id);
+    }
+
+    /**
+     * Number of blocks in this chunk
+     * @return
+     */
+    public int count() {
+        int count = 0;
+        for (BlockStorage section : sections) {
+            if (section != null) count += section.count();
+        }
+        return count;
+    }
+
+    /**
+     * Copy of the blocks of this chunk, without lights or mesh, that can be read while this chunk changes
+     * @return
+     */
+    public Chunk snapshot() {
+        Chunk copy = new Chunk(world, origin.x, origin.y, origin.z);
         lock.lock();
-        modified = true;
-        Block block = blocks[x][z][y];
-        if (block == null) return null;
+        for (int s = 0; s < SECTIONS; s++) {
+            if (sections[s] != null) copy.sections[s] = new BlockStorage(sections[s]);
+        }
+        copy.modified = modified;
+        lock.unlock();
+        return copy;
+    }
 
-        // Remove light for illuminating blocks (TODO: replace GOLD blocks with illuminating type?)
-        if (block.type == BlockType.GOLD) {
-            lightsMap.remove(new Vector3f(x, y, z));
+    /**
+     * Approximate number of bytes held by the block storage of this chunk
+     * @return
+     */
+    public long byteSize() {
+        long size = 0;
+        for (BlockStorage section : sections) {
+            if (section != null) size += section.byteSize();
         }
+        return size;
+    }
 
-        blockList.remove(block);
-        blocks[x][z][y] = null;
-        if (x - 1 >= 0 && blocks[x-1][z][y] != null) {
-            blocks[x-1][z][y].setFace(1, true);
+    public boolean isEmpty() {
+        for (BlockStorage section : sections) {
+            if (section != null) return false;
         }
-        if (x + 1 < Chunk.WIDTH && blocks[x+1][z][y] != null) {
-            blocks[x + 1][z][y].setFace(3, true);
+        return true;
+    }
+
+    /**
+     * Is the section containing local height y empty
+     * @param y
+     * @return
+     */
+    public boolean isSectionEmpty(int y) {
+        return sections[y / SECTION_HEIGHT] == null;
+    }
+
+    /**
+     * Lowest local height that can contain a block
+     * @return
+     */
+    public int minY() {
+        for (int s = 0; s < SECTIONS; s++) {
+            if (sections[s] != null) return s * SECTION_HEIGHT;
         }
-        if (z - 1 >= 0 && blocks[x][z-1][y] != null) {
-            blocks[x][z-1][y].setFace(2, true);
+        return 0;
+    }
+
+    /**
+     * Local height just above the highest section that can contain a block
+     * @return
+     */
+    public int maxY() {
+        for (int s = SECTIONS - 1; s >= 0; s--) {
+            if (sections[s] != null) return (s + 1) * SECTION_HEIGHT;
         }
-        if (z + 1 < Chunk.WIDTH && blocks[x][z+1][y] != null) {
-            blocks[x][z+1][y].setFace(0, true);
+        return 0;
+    }
+
+    /**
+     * Fill the column at local x z from y0 up to y1 with a type, straight into a buffer without locking
+     * Meant for generators filling a chunk nobody else sees yet, the storage is only
+     * updated by finishColumns(), which must be called by the same thread once all columns are done
+     * @param x
+     * @param z
+     * @param y0 lowest y, clamped to the chunk
+     * @param y1 highest y exclusive, clamped to the chunk
+     * @param type
+     */
+    public void fillColumn(int x, int z, int y0, int y1, BlockType type) {
+        y0 = Math.max(y0, 0);
+        y1 = Math.min(y1, HEIGHT);
+        if (y0 >= y1) return;
+        if (fill == null) {
+            fill = fillBuffers.poll();
+            if (fill == null) fill = new byte[SECTIONS * SECTION_SIZE];
+            fillSections = 0;
+            // Start from the current contents
+            Arrays.fill(fill, BlockStorage.AIR);
+            for (int s = 0; s < SECTIONS; s++) {
+                BlockStorage section = sections[s];
+                if (section == null) continue;
+                for (int i = 0; i < SECTION_SIZE; i++) fill[s * SECTION_SIZE + i] = section.get(i);
+                fillSections = s + 1;
+            }
         }
-        if (y - 1 >= 0 && blocks[x][z][y-1] != null) {
-            blocks[x][z][y-1].setFace(4, true);
+        byte id = type.id();
+        for (int i = index(x, y0, z), end = index(x, y1, z); i < end; i += WIDTH * WIDTH) fill[i] = id;
+        fillSections = Math.max(fillSections, (y1 + SECTION_HEIGHT - 1) / SECTION_HEIGHT);
+    }
+
+    /**
+     * Pack the columns filled since the last call into the block storage, one pass per section,
+     * and add lights for the illuminating blocks among them
+     */
+    public void finishColumns() {
+        if (fill == null) return;
+        lock.lock();
+        for (int s = 0; s < fillSections; s++) {
+            BlockStorage section = new BlockStorage(SECTION_SIZE, ByteBuffer.wrap(fill, s * SECTION_SIZE, SECTION_SIZE));
+            sections[s] = section.isEmpty() ? null : section;
         }
-        if (y + 1 < Chunk.HEIGHT && blocks[x][z][y+1] != null) {
-            blocks[x][z][y+1].setFace(5, true);
+        if (fillBuffers.size() < MAX_POOLED_FILLS) fillBuffers.offer(fill);
+        fill = null;
+        lightsMap.clear();
+        addLights();
+        modified = true;
+        lock.unlock();
+    }
+
+    /**
+     * Collapse uniformly filled sections, call after bulk changes like generation
+     */
+    public void compact() {
+        lock.lock();
+        for (BlockStorage section : sections) {
+            if (section != null) section.compact();
         }
         lock.unlock();
-        return block;
+    }
+
+    // Local coords of a storage index
+    public static int localX(int index) {
+        return index % WIDTH;
+    }
+
+    public static int localY(int index) {
+        return index / (WIDTH * WIDTH);
+    }
+
+    public static int localZ(int index) {
+        return (index / WIDTH) % WIDTH;
     }
 
     /**
-     * Set the block at local coords x y z to Block
+     * Get a handle to the block at local coords x y z
      * @param x
      * @param y
      * @param z
-     * @param block
+     * @return block handle, null if there is no block
+     */
+    public Block getBlock(int x, int y, int z) {
+        int index = index(x, y, z);
+        if (getBlockId(index) == BlockStorage.AIR) return null;
+        return new Block(this, index);
+    }
+
+    /**
+     * Is there a block at local coords x y z, out of bounds is empty
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    private boolean isSolid(int x, int y, int z) {
+        if (x < 0 || x >= WIDTH || z < 0 || z >= WIDTH || y < 0 || y >= HEIGHT) return false;
+        return getBlockId(index(x, y, z)) != BlockStorage.AIR;
+    }
+
+    /**
+     * Remove the block at local coords x y z
+     * @param x
+     * @param y
+     * @param z
+     * @return type of the removed block, null if there was none
      */
-    public void setBlock(int x, int y, int z, Block block) {
+    public BlockType removeBlock(int x, int y, int z) {
         lock.lock();
         modified = true;
-        blocks[x][z][y] = block;
-        block.inChunkX = (short) x; block.inChunkY = (short) y; block.inChunkZ = (short) z;
-        block.chunk = this;
-        // Set face data, which face faces another block? we dont need to render that one!
-        if (x - 1 >= 0 && blocks[x-1][z][y] != null) {
-            block.setFace(3, false);
-            blocks[x-1][z][y].setFace(1, false);
-        }
-        if (x + 1 < Chunk.WIDTH && blocks[x+1][z][y] != null) {
-            block.setFace(1, false);
-            blocks[x + 1][z][y].setFace(3, false);
-        }
-        if (z - 1 >= 0 && blocks[x][z-1][y] != null) {
-            block.setFace(0, false);
-            blocks[x][z-1][y].setFace(2, false);
-        }
-        if (z + 1 < Chunk.WIDTH && blocks[x][z+1][y] != null) {
-            block.setFace(2, false);
-            blocks[x][z+1][y].setFace(0, false);
-        }
-        if (y - 1 >= 0 && blocks[x][z][y-1] != null) {
-            block.setFace(5, false);
-            blocks[x][z][y-1].setFace(4, false);
-        }
-        if (y + 1 < Chunk.HEIGHT && blocks[x][z][y+1] != null) {
-            block.setFace(4, false);
-            blocks[x][z][y+1].setFace(5, false);
-        }
-        // We dont need the faces at the bottom of a chunk
-        if (y == 0) {
-            block.setFace(5, false);
+        byte previous = setBlockId(index(x, y, z), BlockStorage.AIR);
+        // Remove light for illuminating blocks (TODO: replace GOLD blocks with illuminating type?)
+        if (previous == BlockType.GOLD.id()) {
+            lightsMap.remove(new Vector3f(x, y, z));
         }
-        // Add to list
-        blockList.add(block);
+        lock.unlock();
+        return (previous == BlockStorage.AIR) ? null : BlockType.type(previous);
+    }
 
+    /**
+     * Set the block at local coords x y z to the given type
+     * @param x
+     * @param y
+     * @param z
+     * @param type
+     */
+    public void setBlock(int x, int y, int z, BlockType type) {
+        lock.lock();
+        modified = true;
+        byte previous = setBlockId(index(x, y, z), type.id());
+        // Remove light of a replaced illuminating block
+        if (previous == BlockType.GOLD.id() && type != BlockType.GOLD) {
+            lightsMap.remove(new Vector3f(x, y, z));
+        }
         // Add light for illuminating blocks (TODO: replace GOLD blocks with illuminating type?)
-        if (block.type == BlockType.GOLD) {
+        if (type == BlockType.GOLD && previous != BlockType.GOLD.id()) {
             lightsMap.put(
                     new Vector3f(x, y, z),
                     new Light(new Vector3f(x + origin.x + 0.5f, y + origin.y + 0.5f, z + origin.z + 0.5f)));
@@ -189,48 +418,45 @@ public class Chunk {
      */
     public void calculateMesh() {
         lock.lock();
-        positions = new ArrayList<>();
-        textureCoords = new ArrayList<>();
-        normals = new ArrayList<>();
-        float inc = (float) Block.increment / (float) Block.size;
-        HashMap<BlockType, Vector2f> texLoc = new HashMap<>();
-        for (BlockType t : BlockType.values()) {
-            texLoc.put(t, new Vector2f(inc * Block.textureLocation.get(t).x, inc * Block.textureLocation.get(t).y));
-        }
-        // Go over all blocks
-        for (Block block : blockList) {
-            // Calculate texture based on block type
-            Vector2f leftTop = texLoc.get(block.type);
-            if (block == world.select1Block || block == world.select2Block) {
-                leftTop = new Vector2f(inc * Block.selectTextureLocation.x, inc * Block.selectTextureLocation.y);
-            }
-            // If the entire face field is 0, then no faces need be rendered
-            if (block.faceField == (byte) 0) continue;
-            float x = block.inChunkX; float y = block.inChunkY; float z = block.inChunkZ;
-            // Go over all faces that need drawing
-            for (int f = 0; f < 6; f++) {
-                // Render only faces that ought to be rendered
-                if (!block.getFace(f)) continue;
-                // Add all the vertex positions, textureCoords and normals for each face's vertices
-                for (int v = 0; v < 6; v++) {
-                    positions.add(Block.faceVertices[f][v * 3] + x);
-                    positions.add(Block.faceVertices[f][v * 3 + 1] + y);
-                    positions.add(Block.faceVertices[f][v * 3 + 2] + z);
-                    if (v == 2 || v == 3 || v == 4) textureCoords.add(leftTop.x);
-                    else textureCoords.add(leftTop.x + inc);
-                    if (v == 1 || v == 2 || v == 3) textureCoords.add(leftTop.y + inc);
-                    else textureCoords.add(leftTop.y);
-                    normals.add(Block.faceNormals[f][v * 3]);
-                    normals.add(Block.faceNormals[f][v * 3 + 1]);
-                    normals.add(Block.faceNormals[f][v * 3 + 2]);
-                }
-            }
-        }
-        vertexCount = positions.size() / 3;
+        // Selected blocks get a different texture
+        int select1 = selectedIndex(world.select1Block);
+        int select2 = selectedIndex(world.select2Block);
+        MeshBuilder builder = MeshBuilder.get();
+        ByteBuffer data = builder.build(this, world.greedyMeshing, select1, select2);
+        // A previous mesh that never made it to the gpu can be reused
+        if (meshData != null) MeshBuilder.release(meshData);
+        meshData = data;
+        vertexCount = builder.vertexCount;
+        naiveVertexCount = builder.faceCount * 6;
         meshReady = false;
         lock.unlock();
     }
 
+    /**
+     * Texture key of face f of the block at local coords x y z
+     * @return 0 if the face is not visible, SELECTED_KEY for selected blocks, block type id otherwise
+     */
+    int faceKey(int f, int x, int y, int z, int select1, int select2) {
+        int index = index(x, y, z);
+        byte id = getBlockId(index);
+        if (id == BlockStorage.AIR) return 0;
+        // Faces that face another block need not be rendered, nor do faces at the bottom of a chunk
+        if (isSolid(x + FACE_OFFSETS[f][0], y + FACE_OFFSETS[f][1], z + FACE_OFFSETS[f][2])) return 0;
+        if (f == 5 && y == 0) return 0;
+        if (index == select1 || index == select2) return MeshBuilder.SELECTED_KEY;
+        return id & 0xFF;
+    }
+
+    /**
+     * Storage index of the given block if it lies in this chunk
+     * @param block
+     * @return index, or -1 if it is not in this chunk
+     */
+    private int selectedIndex(Block block) {
+        if (block == null || block.chunk != this) return -1;
+        return block.index;
+    }
+
     /**
      * Load the calculated mesh into gpu memory
      * DANGER!!!! MESH DATA MUST BE CALCULATED
@@ -240,45 +466,20 @@ public class Chunk {
         unloadMesh();
         mesh = GL30.glGenVertexArrays();
         GL30.glBindVertexArray(mesh);
+        // Single interleaved vbo, uploaded straight from the builder's buffer
         int vbo = GL15.glGenBuffers();
         vbos.add(vbo);
         GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
-        FloatBuffer buffer = BufferUtils.createFloatBuffer(positions.size());
-        float[] positionsArray = new float[positions.size()];
-        for (int i = 0; i < positions.size(); i++) positionsArray[i] = positions.get(i);
-        buffer.put(positionsArray);
-        buffer.flip();
-        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW);
-        GL20.glVertexAttribPointer(0, 3, GL11.GL_FLOAT, false, 0, 0);
-        // Texture coords
-        vbo = GL15.glGenBuffers();
-        vbos.add(vbo);
-        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
-        buffer = BufferUtils.createFloatBuffer(textureCoords.size());
-        float[] textureArray = new float[textureCoords.size()];
-        for (int i = 0; i < textureCoords.size(); i++) textureArray[i] = textureCoords.get(i);
-        buffer.put(textureArray);
-        buffer.flip();
-        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW);
-        GL20.glVertexAttribPointer(1, 2, GL11.GL_FLOAT, false, 0, 0);
-        // Normals
-        vbo = GL15.glGenBuffers();
-        vbos.add(vbo);
-        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
-        buffer = BufferUtils.createFloatBuffer(normals.size());
-        float[] normalsArray = new float[normals.size()];
-        for (int i = 0; i < normals.size(); i++) normalsArray[i] = normals.get(i);
-        buffer.put(normalsArray);
-        buffer.flip();
-        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW);
-        GL20.glVertexAttribPointer(2, 3, GL11.GL_FLOAT, false, 0, 0);
+        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, meshData, GL15.GL_STATIC_DRAW);
+        // Packed vertices are read as unsigned ints and decoded in the vertex shader
+        GL30.glVertexAttribIPointer(0, 1, GL11.GL_UNSIGNED_INT, MeshBuilder.VERTEX_SIZE, MeshBuilder.VERTEX_OFFSET);
+        GL30.glVertexAttribIPointer(1, 1, GL11.GL_UNSIGNED_INT, MeshBuilder.VERTEX_SIZE, MeshBuilder.TEXTURE_OFFSET);
 
         GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
         GL30.glBindVertexArray(0);
         meshReady = true;
-        positions = null;
-        normals = null;
-        textureCoords = null;
+        MeshBuilder.release(meshData);
+        meshData = null;
         lock.unlock();
     }
 
@@ -290,56 +491,22 @@ public class Chunk {
         loadCalculatedMesh();
     }
 
-    public static File toFile(Chunk chunk) {
-        chunk.lock.lock();
-        try {
-            File file = Files.createTempFile("bwe", ".chunk").toFile();
-            FileOutputStream fos = new FileOutputStream(file);
-            ObjectOutputStream oos = new ObjectOutputStream(fos);
-            // Create array of blocktype ids, which has very small serialization size
-            byte[][][] blockIds = new byte[Chunk.WIDTH][Chunk.WIDTH][Chunk.HEIGHT];
-            for (int x = 0; x < Chunk.WIDTH; x++) {
-                for (int z = 0; z < Chunk.WIDTH; z++) {
-                    for (int y = 0; y < Chunk.HEIGHT; y++) {
-                        blockIds[x][z][y] = (chunk.blocks[x][z][y] == null) ? ((byte) 0) : (chunk.blocks[x][z][y].type.id());
-                    }
-                }
-            }
-            oos.writeObject(blockIds);
-            fos.close();
-            oos.close();
-            chunk.lock.unlock();
-            return file;
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        chunk.lock.unlock();
-        return null;
-    }
-
-    public static Chunk fromFile(World world, Vector3i origin, File file) {
-        try {
-            FileInputStream fis = new FileInputStream(file);
-            ObjectInputStream ois = new ObjectInputStream(fis);
-            Chunk chunk = new Chunk(world, origin.x, origin.y, origin.z);
-            // Parse array of blocktype ids and fill chunk
-            byte[][][] blockIds = (byte[][][]) ois.readObject();
-            for (int x = 0; x < Chunk.WIDTH; x++) {
-                for (int z = 0; z < Chunk.WIDTH; z++) {
-                    for (int y = 0; y < Chunk.HEIGHT; y++) {
-                        if (blockIds[x][z][y] != 0) {
-                            chunk.setBlock(x, y, z, new Block(BlockType.type(blockIds[x][z][y])));
-                        }
-                    }
-                }
+    /**
+     * Add a light for every illuminating block, for chunks whose storage was filled directly
+     */
+    void addLights() {
+        byte gold = BlockType.GOLD.id();
+        for (int s = 0; s < SECTIONS; s++) {
+            BlockStorage section = sections[s];
+            if (section == null || !section.mayContain(gold)) continue;
+            for (int i = 0; i < SECTION_SIZE; i++) {
+                if (section.get(i) != gold) continue;
+                int x = localX(i), y = localY(i) + s * SECTION_HEIGHT, z = localZ(i);
+                lightsMap.put(
+                        new Vector3f(x, y, z),
+                        new Light(new Vector3f(x + origin.x + 0.5f, y + origin.y + 0.5f, z + origin.z + 0.5f)));
             }
-            fis.close();
-            ois.close();
-            return chunk;
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
         }
-        return null;
     }
 
 }
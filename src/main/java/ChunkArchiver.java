@@ -1,61 +1,249 @@
 import org.joml.Vector3f;
 import org.joml.Vector3i;
 
-import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Maintains archive of on-disk chunks for cold storage to stay memory frugal
+ * Unloaded chunks first wait in a write behind queue in memory, so a chunk that is loaded again soon
+ * never touches the disk, and are written in batches once the queue exceeds its memory budget
  */
 public class ChunkArchiver {
 
-    // Archive of unloaded chunks
-    public static Map<Vector3i, File> unloadedChunks = new HashMap<>();
+    // Memory budget of the write behind queue, -DarchiveBudget=<megabytes> to change
+    public static final long WRITE_BEHIND_BUDGET = Long.getLong("archiveBudget", 64) << 20;
+    // Chunks written per put job
+    public static final int FLUSH_BATCH = 16;
+
+    // Region files holding the serialized blocks of archived chunks
+    public static RegionStore store = RegionStore.temporary();
+
+    // Index of unloaded chunks in the store, origin by packed chunk key, see Chunk.key()
+    public static LongHashMap<Vector3i> unloadedChunks = new LongHashMap<>();
     public static Lock unloadedChunksLock = new ReentrantLock(true);
+    // Orders changes to the store against the index, held across the disk io so the main thread,
+    // which only takes unloadedChunksLock, never waits on the disk
+    // Taken before unloadedChunksLock, never while holding it
+    private static final Lock storeLock = new ReentrantLock(true);
+
+    // Write behind queue, unloaded chunks not written yet by packed chunk key
+    // Guarded by unloadedChunksLock, an entry stays until its chunk is written and indexed
+    public static LongHashMap<PendingChunk> pendingChunks = new LongHashMap<>();
+    // Pending chunks not handed to a put job yet, oldest first, and their size
+    private static ArrayDeque<PendingChunk> unflushed = new ArrayDeque<>();
+    private static long unflushedBytes;
+    // Chunks taken out of the archive that are not in the world yet, while being meshed or waiting to be gathered,
+    // by packed chunk key, guarded by unloadedChunksLock
+    private static LongHashMap<Chunk> inFlight = new LongHashMap<>();
+    // Number of exports reading archived payloads, and payloads to delete once they are done
+    private static int exports;
+    private static LongHashMap<Vector3i> deferredDeletes = new LongHashMap<>();
+
+    // Chunks of the imported world file not loaded yet, null if the world was not imported
+    public static volatile ZipChunkSource imported;
+
+    // Chunk loads served from the write behind queue, and loads that needed the disk
+    public static int hits;
+    public static int misses;
 
     // Queue of loaded chunks, ready to be gathered by main thread
     public static List<Chunk> chunkQueue = new ArrayList<>();
     public static Lock chunkQueueLock = new ReentrantLock(true);
 
+    // Archived chunks whose payload could not be decoded, by packed chunk key
+    // The payload is kept, the chunk is not loaded again this session, guarded by chunkQueueLock
+    private static LongHashMap<Vector3i> unreadable = new LongHashMap<>();
+
     // Currently running put / fetch jobs
-    public static List<Thread> jobs = new ArrayList<>();
+    public static List<ChunkTask> jobs = new ArrayList<>();
 
     // All origins of all chunks either in progress or in queue
-    public static Set<Vector3i> inProgress = new HashSet<>();
+    public static LongHashMap<Vector3i> inProgress = new LongHashMap<>();
 
     /**
      * Does the archive contain the key?
      * @param key
      * @return
      */
-    public static boolean contains(Vector3i key) {
+    public static boolean contains(long key) {
         unloadedChunksLock.lock();
-        boolean contains = unloadedChunks.containsKey(key);
+        boolean contains = unloadedChunks.containsKey(key) || pendingChunks.containsKey(key);
         unloadedChunksLock.unlock();
+        ZipChunkSource source = imported;
+        return contains || (source != null && source.contains(key));
+    }
+
+    /**
+     * Put serialized chunk blocks in the archive, in place of any imported ones
+     * @param origin
+     * @param data see ChunkCodec
+     * @throws IOException
+     */
+    public static void put(Vector3i origin, byte[] data) throws IOException {
+        long key = Chunk.key(origin);
+        storeLock.lock();
+        try {
+            store.write(key, data);
+            unloadedChunksLock.lock();
+            unloadedChunks.put(key, origin);
+            unloadedChunksLock.unlock();
+        } finally {
+            storeLock.unlock();
+        }
+        ZipChunkSource source = imported;
+        if (source != null) source.take(key);
+    }
+
+    /**
+     * Load a chunk from the imported world file or the disk, taking it out of the archive
+     * A payload that can not be decoded stays in the archive
+     * @param world
+     * @param origin
+     * @return chunk, null if it was not there or could not be read
+     */
+    static Chunk fetch(World world, Vector3i origin) {
+        long key = Chunk.key(origin);
+        try {
+            ZipChunkSource source = imported;
+            if (source != null && source.contains(key)) {
+                byte[] data = source.read(key);
+                Chunk chunk = (data == null) ? null : ChunkCodec.decode(world, origin, ByteBuffer.wrap(data));
+                if (chunk == null) {
+                    System.err.println("Keeping unreadable chunk " + origin + " in " + source.getFile());
+                    return null;
+                }
+                // Exports see it in either place
+                unloadedChunksLock.lock();
+                source.take(key);
+                inFlight.put(key, chunk);
+                unloadedChunksLock.unlock();
+                return chunk;
+            }
+            // Decode straight from the mapped region, the sectors are only freed afterwards
+            ByteBuffer data = store.map(key);
+            Chunk chunk = (data == null) ? null : ChunkCodec.decode(world, origin, data);
+            if (chunk == null) {
+                System.err.println("Keeping unreadable archived chunk " + origin);
+                return null;
+            }
+            unloadedChunksLock.lock();
+            unloadedChunks.remove(key);
+            inFlight.put(key, chunk);
+            unloadedChunksLock.unlock();
+            release(origin);
+            return chunk;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Remember an archived chunk that could not be read, so it is not loaded again
+     * while its payload is kept
+     * @param origin
+     */
+    static void markUnreadable(Vector3i origin) {
+        chunkQueueLock.lock();
+        unreadable.put(Chunk.key(origin), origin);
+        chunkQueueLock.unlock();
+    }
+
+    /**
+     * Is the chunk archived with a payload that could not be read
+     * @param key packed chunk key
+     * @return
+     */
+    public static boolean isUnreadable(long key) {
+        chunkQueueLock.lock();
+        boolean contains = unreadable.containsKey(key);
+        chunkQueueLock.unlock();
         return contains;
     }
 
+    /**
+     * Load a chunk from any tier of the archive on this thread, taking it out of the archive
+     * @param world
+     * @param origin
+     * @return chunk without mesh, null if it was not there or could not be read
+     */
+    public static Chunk loadNow(World world, Vector3i origin) {
+        long key = Chunk.key(origin);
+        unloadedChunksLock.lock();
+        PendingChunk pending = pendingChunks.remove(key);
+        if (pending != null && unflushed.remove(pending)) unflushedBytes -= pending.bytes;
+        unloadedChunksLock.unlock();
+        if (pending != null) return pending.chunk;
+        Chunk chunk = fetch(world, origin);
+        // The caller puts it in the world itself
+        if (chunk != null) landed(key);
+        return chunk;
+    }
+
+    /**
+     * A chunk taken out of the archive is in the world now
+     * @param key packed chunk key
+     */
+    private static void landed(long key) {
+        unloadedChunksLock.lock();
+        inFlight.remove(key);
+        unloadedChunksLock.unlock();
+    }
+
+    /**
+     * Compressed payload of a chunk as it is archived now, if it holds edits
+     * @param origin
+     * @return payload, see ChunkCodec, null if it is not in the write behind queue, being fetched or on disk
+     * @throws IOException
+     */
+    static byte[] archivedPayload(Vector3i origin) throws IOException {
+        long key = Chunk.key(origin);
+        unloadedChunksLock.lock();
+        PendingChunk pending = pendingChunks.get(key);
+        Chunk fetched = inFlight.get(key);
+        boolean stored = unloadedChunks.containsKey(key);
+        unloadedChunksLock.unlock();
+        if (pending != null) return ChunkCodec.encodeDelta(pending.chunk, true);
+        // Fetched but not in the world yet, nothing edits it in the meantime
+        if (fetched != null) return ChunkCodec.encodeDelta(fetched, true);
+        byte[] data = stored ? store.read(key) : null;
+        return (data == null) ? null : ChunkCodec.compress(data);
+    }
+
+    /**
+     * Read the payload of an archived chunk, from the disk or else the imported world file
+     * Payloads of chunks fetched during an export stay readable until it ends
+     * @param origin
+     * @return payload, see ChunkCodec, null if there is none
+     * @throws IOException
+     */
+    public static byte[] readArchived(Vector3i origin) throws IOException {
+        long key = Chunk.key(origin);
+        byte[] data = store.read(key);
+        ZipChunkSource source = imported;
+        if (data == null && source != null) data = source.read(key);
+        return data;
+    }
+
     /**
      * Gather all finished jobs
      * @return
      */
     public static List<Chunk> gather() {
-        List<Thread> finished = new ArrayList<>();
-        for (Thread thread : jobs) {
-            if (!thread.isAlive()) finished.add(thread);
-        }
-        for (Thread thread : finished) {
-            try {
-                thread.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
-        jobs.removeAll(finished);
+        jobs.removeIf(ChunkTask::isDone);
         List<Chunk> results = clearQueue();
-        for (Chunk c : results) inProgress.remove(c.origin);
+        for (Chunk c : results) {
+            inProgress.remove(c.key());
+            landed(c.key());
+        }
+        // Unreadable chunks are done too, nothing is queued for them
+        chunkQueueLock.lock();
+        for (Vector3i origin : unreadable) inProgress.remove(Chunk.key(origin));
+        chunkQueueLock.unlock();
         return results;
     }
 
@@ -72,13 +260,129 @@ public class ChunkArchiver {
     }
 
     /**
-     * Archive the given chunk to disk
+     * Archive the given chunk, it is kept in memory until the write behind queue is over budget
      * @param chunk
      */
     public static void archiveChunk(Chunk chunk) {
-        Thread thread = new Thread(new ArchivePutJob(chunk));
-        jobs.add(thread);
-        thread.start();
+        PendingChunk pending = new PendingChunk(chunk);
+        unloadedChunksLock.lock();
+        pendingChunks.put(chunk.key(), pending);
+        unflushed.add(pending);
+        unflushedBytes += pending.bytes;
+        // Write the oldest chunks in batches until the rest fits the budget
+        while (unflushedBytes > WRITE_BEHIND_BUDGET) {
+            List<PendingChunk> batch = new ArrayList<>(FLUSH_BATCH);
+            while (batch.size() < FLUSH_BATCH && !unflushed.isEmpty()) {
+                PendingChunk oldest = unflushed.poll();
+                unflushedBytes -= oldest.bytes;
+                batch.add(oldest);
+            }
+            jobs.add(Workers.io(new ArchivePutJob(batch)));
+        }
+        unloadedChunksLock.unlock();
+        // The chunk supersedes an imported one that could not be read
+        ZipChunkSource source = imported;
+        if (source != null) source.take(chunk.key());
+    }
+
+    /**
+     * Write an encoded pending chunk to disk and index it, unless it was loaded again meanwhile
+     * The pending entry is the version of the chunk: it is checked before writing and again before indexing,
+     * a chunk taken back or queued anew while its payload was written leaves that payload unindexed and it is deleted
+     * Writes are ordered by the store lock, so a stale payload can never replace a newer one
+     * @param pending
+     * @param data see ChunkCodec
+     * @return was the chunk written
+     * @throws IOException
+     */
+    static boolean write(PendingChunk pending, byte[] data) throws IOException {
+        long key = pending.chunk.key();
+        storeLock.lock();
+        try {
+            unloadedChunksLock.lock();
+            boolean current = pendingChunks.get(key) == pending;
+            unloadedChunksLock.unlock();
+            if (!current) return false;
+            store.write(key, data);
+            unloadedChunksLock.lock();
+            current = pendingChunks.get(key) == pending;
+            // Taken back meanwhile, the chunk in memory or its next pending entry is newer
+            boolean stale = !current && exports == 0;
+            if (current) {
+                deferredDeletes.remove(key);
+                pendingChunks.remove(key);
+                unloadedChunks.put(key, new Vector3i(pending.chunk.origin));
+            } else if (!stale) {
+                deferredDeletes.put(key, new Vector3i(pending.chunk.origin));
+            }
+            unloadedChunksLock.unlock();
+            if (stale) store.delete(key);
+            return current;
+        } finally {
+            storeLock.unlock();
+        }
+    }
+
+    /**
+     * Remove the payload of a fetched chunk from the store, or once running exports are done with it
+     * @param origin
+     * @throws IOException
+     */
+    static void release(Vector3i origin) throws IOException {
+        long key = Chunk.key(origin);
+        storeLock.lock();
+        try {
+            unloadedChunksLock.lock();
+            boolean defer = exports > 0;
+            if (defer) deferredDeletes.put(key, origin);
+            unloadedChunksLock.unlock();
+            if (!defer) store.delete(key);
+        } finally {
+            storeLock.unlock();
+        }
+    }
+
+    /**
+     * Start an export, archived payloads stay in the store until it ends
+     * Chunks that were taken out of the archive but are not in the world yet are included,
+     * so a chunk being loaded meanwhile is exported either way
+     * @param archived filled with the origins of the chunks on disk
+     * @param pending filled with snapshots of the chunks in the write behind queue or on their way to the world
+     */
+    public static void beginExport(List<Vector3i> archived, List<Chunk> pending) {
+        unloadedChunksLock.lock();
+        exports++;
+        for (Vector3i origin : unloadedChunks) archived.add(new Vector3i(origin));
+        for (PendingChunk p : pendingChunks) pending.add(p.chunk.snapshot());
+        for (Chunk chunk : inFlight) pending.add(chunk.snapshot());
+        ZipChunkSource source = imported;
+        if (source != null) source.availableOrigins(archived);
+        unloadedChunksLock.unlock();
+    }
+
+    /**
+     * End an export, deleting the payloads of chunks fetched meanwhile
+     */
+    public static void endExport() {
+        List<Vector3i> deletes = new ArrayList<>();
+        storeLock.lock();
+        try {
+            unloadedChunksLock.lock();
+            if (--exports == 0) {
+                for (Vector3i origin : deferredDeletes) deletes.add(origin);
+                deferredDeletes.clear();
+            }
+            unloadedChunksLock.unlock();
+            for (Vector3i origin : deletes) {
+                try {
+                    store.delete(Chunk.key(origin));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            storeLock.unlock();
+        }
     }
 
     /**
@@ -87,20 +391,121 @@ public class ChunkArchiver {
      * @param key
      */
     public static void unarchiveChunk(World world, Vector3i key) {
-        Thread thread = new Thread(new ArchiveFetchJob(world, key));
-        jobs.add(thread);
-        inProgress.add(key);
-        thread.start();
+        long chunkKey = Chunk.key(key);
+        inProgress.put(chunkKey, key);
+        // Take it back from the write behind queue if it is still there, even while a put job writes it
+        unloadedChunksLock.lock();
+        PendingChunk pending = pendingChunks.remove(chunkKey);
+        if (pending != null && unflushed.remove(pending)) unflushedBytes -= pending.bytes;
+        if (pending != null) inFlight.put(chunkKey, pending.chunk);
+        unloadedChunksLock.unlock();
+        if (pending != null) {
+            hits++;
+            jobs.add(meshAndQueue(pending.chunk));
+            return;
+        }
+        misses++;
+        jobs.add(Workers.io(new ArchiveFetchJob(world, key), key));
+    }
+
+    /**
+     * Mesh a chunk on the compute workers and queue it to be gathered
+     * Not tied to a position, so it is never cancelled and the chunk can not get lost
+     * @param chunk
+     * @return
+     */
+    static ChunkTask meshAndQueue(Chunk chunk) {
+        return Workers.compute(() -> {
+            chunk.calculateMesh();
+            chunkQueueLock.lock();
+            chunkQueue.add(chunk);
+            chunkQueueLock.unlock();
+        });
+    }
+
+    /**
+     * Number of chunks in the write behind queue
+     * @return
+     */
+    public static int pendingCount() {
+        unloadedChunksLock.lock();
+        int count = pendingChunks.size();
+        unloadedChunksLock.unlock();
+        return count;
+    }
+
+    /**
+     * Approximate memory held by write behind chunks that are not being written yet
+     * @return
+     */
+    public static long pendingBytes() {
+        unloadedChunksLock.lock();
+        long bytes = unflushedBytes;
+        unloadedChunksLock.unlock();
+        return bytes;
+    }
+
+    /**
+     * Cancel queued fetches for chunks further than range from the position,
+     * they stay in the archive
+     * @param position
+     * @param range
+     * @return number of cancelled fetches
+     */
+    public static int cancelOutside(Vector3f position, float range) {
+        int cancelled = 0;
+        Iterator<ChunkTask> it = jobs.iterator();
+        while (it.hasNext()) {
+            ChunkTask job = it.next();
+            // Puts are not tied to a position and must always complete
+            if (job.origin == null) continue;
+            if (position.distance(job.origin.x, job.origin.y, job.origin.z) <= range) continue;
+            if (job.cancelIfQueued()) {
+                inProgress.remove(Chunk.key(job.origin));
+                it.remove();
+                cancelled++;
+            }
+        }
+        return cancelled;
     }
 
     public static void reset() {
-        for (Thread t : jobs) t.interrupt();
+        for (ChunkTask job : jobs) job.cancel(false);
         clearQueue();
+        chunkQueueLock.lock();
+        unreadable.clear();
+        chunkQueueLock.unlock();
         unloadedChunksLock.lock();
         unloadedChunks.clear();
+        pendingChunks.clear();
+        inFlight.clear();
+        unflushed.clear();
+        unflushedBytes = 0;
+        deferredDeletes.clear();
         unloadedChunksLock.unlock();
+        if (imported != null) imported.close();
+        imported = null;
+        storeLock.lock();
+        store.clear();
+        storeLock.unlock();
         inProgress.clear();
         jobs.clear();
     }
 
+    /**
+     * Unloaded chunk in the write behind queue
+     */
+    static class PendingChunk {
+
+        final Chunk chunk;
+        // Memory held by the chunk when it was queued
+        final long bytes;
+
+        PendingChunk(Chunk chunk) {
+            this.chunk = chunk;
+            this.bytes = chunk.byteSize();
+        }
+
+    }
+
 }
@@ -0,0 +1,245 @@
+import org.joml.Vector3i;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Size bounded LRU cache of generated chunks, kept as compressed payloads
+ * Chunks are keyed by the configuration of the generator that made them and their origin,
+ * so worlds with the same generator settings share them
+ * Chunks enter live and are compressed in the background, the least recently used are dropped
+ * once the cache is over budget, so they should be chunks that can be regenerated
+ * Thread safe
+ */
+public class ChunkCache {
+
+    // Budget in bytes
+    public final long budget;
+
+    // Entries by generator configuration, then by packed chunk key
+    private final HashMap<String, LongHashMap<Entry>> entries = new HashMap<>();
+    private int size;
+    // Doubly linked list of entries, most recently used after head, least recently before it
+    private final Entry head = new Entry();
+    private long bytes;
+    private final Lock lock = new ReentrantLock(true);
+
+    /**
+     * @param budget memory budget in bytes
+     */
+    public ChunkCache(long budget) {
+        this.budget = budget;
+        head.next = head;
+        head.previous = head;
+    }
+
+    /**
+     * Put an unmodified chunk in the cache, replacing any previous entry for it
+     * It is compressed on the compute workers after closer work, until then the cache holds the chunk itself
+     * @param config configuration of the generator that made it, see WorldGenerator.configKey()
+     * @param chunk
+     */
+    public void put(String config, Chunk chunk) {
+        Entry entry = new Entry(config, chunk);
+        lock.lock();
+        Entry previous = entries.computeIfAbsent(config, c -> new LongHashMap<>()).put(entry.key, entry);
+        if (previous != null) unlink(previous);
+        else size++;
+        link(entry);
+        evict();
+        lock.unlock();
+        Workers.compute(() -> compress(entry), entry.origin);
+    }
+
+    /**
+     * Take the entry of a chunk out of the cache
+     * @param config configuration of the generator, see WorldGenerator.configKey()
+     * @param key packed chunk key, see Chunk.key()
+     * @return entry, restore it to get the chunk, null if it is not cached
+     */
+    public Entry take(String config, long key) {
+        lock.lock();
+        LongHashMap<Entry> generated = entries.get(config);
+        Entry entry = (generated == null) ? null : generated.remove(key);
+        if (entry != null) {
+            unlink(entry);
+            size--;
+        }
+        lock.unlock();
+        return entry;
+    }
+
+    /**
+     * Copy of a cached chunk, leaving it in the cache
+     * @param config configuration of the generator, see WorldGenerator.configKey()
+     * @param key packed chunk key, see Chunk.key()
+     * @param world world the copy is for
+     * @return unmodified chunk, null if it is not cached or could not be decoded
+     */
+    public Chunk copy(String config, long key, World world) {
+        lock.lock();
+        LongHashMap<Entry> generated = entries.get(config);
+        Entry entry = (generated == null) ? null : generated.get(key);
+        Chunk chunk = null;
+        byte[] payload = null;
+        if (entry != null) {
+            // Used again, move it to the front
+            unlink(entry);
+            link(entry);
+            chunk = entry.chunk;
+            payload = entry.payload;
+        }
+        lock.unlock();
+        if (chunk != null) {
+            Chunk copy = chunk.snapshot();
+            copy.world = world;
+            return copy;
+        }
+        if (payload == null) return null;
+        return entry.decode(payload, world);
+    }
+
+    public boolean contains(String config, long key) {
+        lock.lock();
+        LongHashMap<Entry> generated = entries.get(config);
+        boolean contains = generated != null && generated.containsKey(key);
+        lock.unlock();
+        return contains;
+    }
+
+    /**
+     * Number of cached chunks
+     * @return
+     */
+    public int size() {
+        lock.lock();
+        int cached = size;
+        lock.unlock();
+        return cached;
+    }
+
+    /**
+     * Approximate memory held by the cache
+     * @return
+     */
+    public long byteSize() {
+        lock.lock();
+        long size = bytes;
+        lock.unlock();
+        return size;
+    }
+
+    public void clear() {
+        lock.lock();
+        entries.clear();
+        size = 0;
+        head.next = head;
+        head.previous = head;
+        bytes = 0;
+        lock.unlock();
+    }
+
+    /**
+     * Replace the live chunk of an entry by its compressed payload, if it is still cached
+     */
+    private void compress(Entry entry) {
+        Chunk chunk;
+        lock.lock();
+        chunk = entry.chunk;
+        lock.unlock();
+        if (chunk == null) return;
+        byte[] payload = ChunkCodec.encode(chunk, true);
+        lock.lock();
+        LongHashMap<Entry> generated = entries.get(entry.config);
+        if (generated != null && generated.get(entry.key) == entry) {
+            bytes += payload.length - entry.bytes;
+            entry.payload = payload;
+            entry.bytes = payload.length;
+            entry.chunk = null;
+        }
+        lock.unlock();
+    }
+
+    private void link(Entry entry) {
+        entry.previous = head;
+        entry.next = head.next;
+        head.next.previous = entry;
+        head.next = entry;
+        bytes += entry.bytes;
+    }
+
+    private void unlink(Entry entry) {
+        entry.previous.next = entry.next;
+        entry.next.previous = entry.previous;
+        entry.next = null;
+        entry.previous = null;
+        bytes -= entry.bytes;
+    }
+
+    /**
+     * Drop least recently put entries until the cache fits its budget
+     */
+    private void evict() {
+        while (bytes > budget && head.previous != head) {
+            Entry oldest = head.previous;
+            LongHashMap<Entry> generated = entries.get(oldest.config);
+            generated.remove(oldest.key);
+            if (generated.isEmpty()) entries.remove(oldest.config);
+            unlink(oldest);
+            size--;
+        }
+    }
+
+    /**
+     * Cached chunk, either live or compressed
+     * The cache is shared by all worlds, so entries do not refer to one, chunks are handed out for the caller's world
+     */
+    public static class Entry {
+
+        private final String config;
+        private final long key;
+        private final Vector3i origin;
+        // Live chunk until compressed, then the payload, see ChunkCodec
+        private Chunk chunk;
+        private byte[] payload;
+        private long bytes;
+        private Entry previous, next;
+
+        private Entry(String config, Chunk chunk) {
+            this.config = config;
+            this.chunk = chunk;
+            this.key = chunk.key();
+            this.origin = new Vector3i(chunk.origin);
+            this.bytes = chunk.byteSize();
+        }
+
+        // List head
+        private Entry() {
+            this.config = null;
+            this.key = 0;
+            this.origin = null;
+        }
+
+        /**
+         * The cached chunk, decoded if it was compressed
+         * Must only be called once the entry is taken out of the cache
+         * @param world world the chunk is for
+         * @return chunk, unmodified, null if the payload could not be decoded
+         */
+        public Chunk restore(World world) {
+            if (chunk == null) return decode(payload, world);
+            chunk.world = world;
+            return chunk;
+        }
+
+        private Chunk decode(byte[] payload, World world) {
+            Chunk decoded = ChunkCodec.decode(world, origin, ByteBuffer.wrap(payload));
+            if (decoded != null) decoded.modified = false;
+            return decoded;
+        }
+
+    }
+
+}
@@ -0,0 +1,556 @@
+import org.joml.Vector3i;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary encoding of the blocks of a chunk, used by the archive and world exports
+ * A payload starts with a version byte and a flags byte, followed by a body with a tag per section:
+ * empty, uniform with its id, palette with bit packed indices, or palette with runs of indices
+ * The body can be deflated as a whole, which is worth it for exports but not for the archive
+ * Delta payloads only hold what differs from the generator output: sections equal to it are left out,
+ * lightly edited ones hold just the edited runs of ids, decoding regenerates the rest
+ * Java serialized chunks of the original world format can still be decoded
+ */
+public class ChunkCodec {
+
+    // Payload version, Java serialized chunks start with 0xAC instead
+    private static final byte VERSION = 2;
+    // Flags of the current version
+    private static final byte FLAG_DEFLATED = 1;
+    private static final byte FLAG_DELTA = 2;
+    // Per section tags
+    private static final byte SECTION_EMPTY = 0;
+    private static final byte SECTION_UNIFORM = 1;
+    private static final byte SECTION_PACKED = 3;
+    private static final byte SECTION_RUNS = 4;
+    private static final byte SECTION_BASELINE = 5; // only in delta payloads, same as generated
+    private static final byte SECTION_EDITS = 6; // only in delta payloads, runs of ids that differ from generated
+    // Bytes before the body: version, flags, and the body length if deflated
+    private static final int HEADER_SIZE = 2;
+    private static final int DEFLATED_HEADER_SIZE = HEADER_SIZE + Integer.BYTES;
+    // Largest possible body: tag, palette size, full palette and 8 bit indices for every section
+    private static final int MAX_BODY_SIZE = Chunk.SECTIONS * (2 + 256 + Chunk.SECTION_SIZE);
+
+    // Store modified chunks as deltas against the generator output, -DdeltaStorage=false stores them in full
+    public static final boolean DELTA = Boolean.parseBoolean(System.getProperty("deltaStorage", "true"));
+    // Equal ids between two edited runs up to which they are joined
+    private static final int MAX_JOINED_GAP = 2;
+
+    // Idle codecs, each holds half a megabyte of scratch and a native deflater and inflater,
+    // pooled rather than per thread as io tasks may run on short lived virtual threads
+    private static final int MAX_POOLED = Workers.COMPUTE_THREADS + Workers.VIRTUAL_IO_THREADS;
+    private static final ConcurrentLinkedQueue<ChunkCodec> pool = new ConcurrentLinkedQueue<>();
+
+    // Scratch space
+    private final byte[] ids = new byte[Chunk.SECTION_SIZE];
+    private final byte[] baseIds = new byte[Chunk.SECTION_SIZE];
+    // Size of the edits found by the last compareSection()
+    private int editsBytes;
+    private final int[] paletteIndex = new int[256];
+    private final byte[] palette = new byte[256];
+    private final byte[] body = new byte[MAX_BODY_SIZE];
+    private final byte[] deflated = new byte[MAX_BODY_SIZE + 1024];
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+
+    /**
+     * Encode the blocks of a chunk
+     * @param chunk
+     * @param compress deflate the body
+     * @return payload
+     */
+    public static byte[] encode(Chunk chunk, boolean compress) {
+        return encode(chunk, null, compress);
+    }
+
+    /**
+     * Encode the blocks of a chunk as a delta against what its world generator makes of it,
+     * in full if there is no generator or delta storage is off
+     * @param chunk
+     * @param compress deflate the body
+     * @return payload
+     */
+    public static byte[] encodeDelta(Chunk chunk, boolean compress) {
+        if (!DELTA) return encode(chunk, null, compress);
+        return encode(chunk, baseline(chunk.world, chunk.origin), compress);
+    }
+
+    private static byte[] encode(Chunk chunk, Chunk baseline, boolean compress) {
+        ChunkCodec codec = acquire();
+        try {
+            chunk.lock.lock();
+            int length;
+            try {
+                length = codec.encodeBody(chunk, baseline);
+            } finally {
+                chunk.lock.unlock();
+            }
+            byte flags = (baseline == null) ? 0 : FLAG_DELTA;
+            return compress ? codec.deflate(flags, codec.body, length) : codec.uncompressed(flags, length);
+        } finally {
+            release(codec);
+        }
+    }
+
+    /**
+     * Deflate the body of an uncompressed payload, other payloads are returned as is
+     * @param payload see encode()
+     * @return
+     */
+    public static byte[] compress(byte[] payload) {
+        if (payload.length < HEADER_SIZE || payload[0] != VERSION || (payload[1] & FLAG_DEFLATED) != 0) return payload;
+        ChunkCodec codec = acquire();
+        try {
+            byte[] bodyOnly = Arrays.copyOfRange(payload, HEADER_SIZE, payload.length);
+            return codec.deflate(payload[1], bodyOnly, bodyOnly.length);
+        } finally {
+            release(codec);
+        }
+    }
+
+    /**
+     * Take an idle codec from the pool, or make a new one
+     */
+    private static ChunkCodec acquire() {
+        ChunkCodec codec = pool.poll();
+        return (codec == null) ? new ChunkCodec() : codec;
+    }
+
+    /**
+     * Hand a codec obtained from acquire back to the pool, or free its native memory if the pool is full
+     */
+    private static void release(ChunkCodec codec) {
+        if (pool.size() < MAX_POOLED) {
+            pool.offer(codec);
+        } else {
+            codec.deflater.end();
+            codec.inflater.end();
+        }
+    }
+
+    /**
+     * What the world generator makes of the chunk at the origin, the base of delta payloads
+     * @param world
+     * @param origin
+     * @return generated chunk, null if the world has no generator
+     */
+    private static Chunk baseline(World world, Vector3i origin) {
+        if (world == null || world.worldGenerator == null) return null;
+        return world.worldGenerator.baseline(world, origin);
+    }
+
+    /**
+     * Decode a payload of any version into a new chunk
+     * Sections are decoded straight from the buffer, which may be a mapped region file
+     * @param world
+     * @param origin
+     * @param data payload from its position up to its limit
+     * @return chunk marked as modified, null if the data could not be read
+     */
+    public static Chunk decode(World world, Vector3i origin, ByteBuffer data) {
+        int start = data.position();
+        if (data.remaining() >= 2 && data.get(start) == (byte) 0xAC && data.get(start + 1) == (byte) 0xED) {
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            return decodeLegacy(world, origin, bytes);
+        }
+        Chunk chunk = new Chunk(world, origin.x, origin.y, origin.z);
+        ChunkCodec codec = null;
+        try {
+            byte version = data.get();
+            if (version != VERSION) {
+                System.err.println("Unknown chunk format version " + version + " at " + origin);
+                return null;
+            }
+            Chunk baseline = null;
+            byte flags = data.get();
+            // Get the baseline first, it may be generated or decoded from the generation cache
+            if ((flags & FLAG_DELTA) != 0) {
+                baseline = baseline(world, origin);
+                if (baseline == null) throw new IllegalStateException("Delta payload without a world generator");
+            }
+            codec = acquire();
+            if ((flags & FLAG_DEFLATED) != 0) data = codec.inflate(data);
+            for (int s = 0; s < Chunk.SECTIONS; s++) {
+                chunk.sections[s] = codec.decodeSection(data, (baseline == null) ? null : baseline.sections, s);
+            }
+        } catch (DataFormatException | RuntimeException e) {
+            System.err.println("Corrupt chunk payload at " + origin);
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (codec != null) release(codec);
+        }
+        chunk.addLights();
+        // Archived chunks hold edits, keep them marked so they are archived and exported again
+        chunk.modified = true;
+        return chunk;
+    }
+
+    private byte[] uncompressed(byte flags, int length) {
+        byte[] payload = new byte[HEADER_SIZE + length];
+        payload[0] = VERSION;
+        payload[1] = flags;
+        System.arraycopy(body, 0, payload, HEADER_SIZE, length);
+        return payload;
+    }
+
+    private byte[] deflate(byte flags, byte[] source, int length) {
+        deflater.reset();
+        deflater.setInput(source, 0, length);
+        deflater.finish();
+        int size = deflater.deflate(deflated, 0, deflated.length);
+        // Not worth it, or did not fit
+        if (!deflater.finished() || size >= length) {
+            byte[] payload = new byte[HEADER_SIZE + length];
+            payload[0] = VERSION;
+            payload[1] = flags;
+            System.arraycopy(source, 0, payload, HEADER_SIZE, length);
+            return payload;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(DEFLATED_HEADER_SIZE + size);
+        payload.put(VERSION).put((byte) (flags | FLAG_DEFLATED)).putInt(length).put(deflated, 0, size);
+        return payload.array();
+    }
+
+    private ByteBuffer inflate(ByteBuffer data) throws DataFormatException {
+        int length = data.getInt();
+        if (length < 0 || length > body.length) throw new DataFormatException("Body length " + length);
+        inflater.reset();
+        inflater.setInput(data);
+        int size = 0;
+        while (size < length && !inflater.finished()) {
+            int inflated = inflater.inflate(body, size, length - size);
+            if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+            size += inflated;
+        }
+        if (size != length) throw new DataFormatException("Truncated body");
+        return ByteBuffer.wrap(body, 0, length);
+    }
+
+    /**
+     * Encode all sections of the chunk into the body scratch
+     * @param chunk
+     * @param baseline generated chunk to encode against, null to encode in full
+     * @return body length
+     */
+    private int encodeBody(Chunk chunk, Chunk baseline) {
+        int length = 0;
+        for (int s = 0; s < Chunk.SECTIONS; s++) {
+            BlockStorage section = chunk.sections[s];
+            if (baseline == null) {
+                length = encodeSection(section, length);
+                continue;
+            }
+            BlockStorage base = baseline.sections[s];
+            int runs = compareSection(section, base);
+            if (runs == 0) {
+                body[length++] = SECTION_BASELINE;
+                continue;
+            }
+            // Whichever is smaller, the section in full or its edits
+            int start = length;
+            length = encodeSection(section, start);
+            // encodeSection leaves the ids of the section in place
+            if (editsBytes < length - start) length = encodeEdits(runs, start);
+        }
+        return length;
+    }
+
+    /**
+     * Encode one section into the body scratch
+     * @param section storage, null if empty
+     * @param length body length so far
+     * @return body length
+     */
+    private int encodeSection(BlockStorage section, int length) {
+        if (section == null) {
+            body[length++] = SECTION_EMPTY;
+            return length;
+        }
+        if (section.isUniform()) {
+            body[length++] = SECTION_UNIFORM;
+            body[length++] = section.get(0);
+            return length;
+        }
+        // Palette of the ids that actually occur, and the size of the run encoding
+        Arrays.fill(paletteIndex, -1);
+        int paletteSize = 0;
+        int runs = 0;
+        int runBytes = 0;
+        int runStart = 0;
+        for (int i = 0; i < Chunk.SECTION_SIZE; i++) {
+            byte id = section.get(i);
+            ids[i] = id;
+            if (paletteIndex[id & 0xFF] < 0) {
+                paletteIndex[id & 0xFF] = paletteSize;
+                palette[paletteSize++] = id;
+            }
+            if (i > 0 && id != ids[i - 1]) {
+                runs++;
+                runBytes += 1 + varIntSize(i - runStart - 1);
+                runStart = i;
+            }
+        }
+        runs++;
+        runBytes += 1 + varIntSize(Chunk.SECTION_SIZE - runStart - 1) + varIntSize(runs);
+        int bits = bitsFor(paletteSize);
+        boolean useRuns = runBytes < Chunk.SECTION_SIZE * bits / 8;
+        body[length++] = useRuns ? SECTION_RUNS : SECTION_PACKED;
+        body[length++] = (byte) (paletteSize - 1);
+        System.arraycopy(palette, 0, body, length, paletteSize);
+        length += paletteSize;
+        if (useRuns) {
+            length = putVarInt(runs, length);
+            length = encodeRuns(length);
+        } else {
+            length = encodePacked(bits, length);
+        }
+        return length;
+    }
+
+    /**
+     * Compare a section to its generated counterpart, leaving both in the id scratch
+     * @param section storage, null if empty
+     * @param base generated storage, null if empty
+     * @return number of edited runs, 0 if the section is as generated
+     */
+    private int compareSection(BlockStorage section, BlockStorage base) {
+        if (section == null && base == null) return 0;
+        if (section != null && base != null && section.isUniform() && base.isUniform() && section.get(0) == base.get(0)) return 0;
+        fillIds(ids, section);
+        fillIds(baseIds, base);
+        int runs = 0;
+        int bytes = 0;
+        int previousEnd = 0;
+        for (int i = 0; i < Chunk.SECTION_SIZE; ) {
+            if (ids[i] == baseIds[i]) {
+                i++;
+                continue;
+            }
+            int end = editEnd(i);
+            runs++;
+            bytes += varIntSize(i - previousEnd) + varIntSize(end - i - 1) + (end - i);
+            previousEnd = end;
+            i = end;
+        }
+        editsBytes = 1 + varIntSize(runs) + bytes;
+        return runs;
+    }
+
+    /**
+     * End of the edited run starting at start, runs only a few equal ids apart are joined
+     */
+    private int editEnd(int start) {
+        int end = start + 1;
+        for (int i = end; i < Chunk.SECTION_SIZE && i - end <= MAX_JOINED_GAP; i++) {
+            if (ids[i] != baseIds[i]) end = i + 1;
+        }
+        return end;
+    }
+
+    /**
+     * Encode the edited runs of the section in the id scratch: for every run
+     * the number of ids since the previous one, its length - 1 and its ids
+     */
+    private int encodeEdits(int runs, int length) {
+        body[length++] = SECTION_EDITS;
+        length = putVarInt(runs, length);
+        int previousEnd = 0;
+        for (int i = 0; i < Chunk.SECTION_SIZE; ) {
+            if (ids[i] == baseIds[i]) {
+                i++;
+                continue;
+            }
+            int end = editEnd(i);
+            length = putVarInt(i - previousEnd, length);
+            length = putVarInt(end - i - 1, length);
+            System.arraycopy(ids, i, body, length, end - i);
+            length += end - i;
+            previousEnd = end;
+            i = end;
+        }
+        return length;
+    }
+
+    private static void fillIds(byte[] target, BlockStorage section) {
+        if (section == null) {
+            Arrays.fill(target, BlockStorage.AIR);
+        } else if (section.isUniform()) {
+            Arrays.fill(target, section.get(0));
+        } else {
+            for (int i = 0; i < Chunk.SECTION_SIZE; i++) target[i] = section.get(i);
+        }
+    }
+
+    private int encodeRuns(int length) {
+        int start = 0;
+        for (int i = 1; i <= Chunk.SECTION_SIZE; i++) {
+            if (i < Chunk.SECTION_SIZE && ids[i] == ids[start]) continue;
+            body[length++] = (byte) paletteIndex[ids[start] & 0xFF];
+            length = putVarInt(i - start - 1, length);
+            start = i;
+        }
+        return length;
+    }
+
+    private int encodePacked(int bits, int length) {
+        // Little endian bit stream, SECTION_SIZE * bits is always a whole number of bytes
+        int buffer = 0;
+        int buffered = 0;
+        for (int i = 0; i < Chunk.SECTION_SIZE; i++) {
+            buffer |= paletteIndex[ids[i] & 0xFF] << buffered;
+            buffered += bits;
+            while (buffered >= 8) {
+                body[length++] = (byte) buffer;
+                buffer >>>= 8;
+                buffered -= 8;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Decode one section from the body
+     * @param data positioned at the section tag, advanced past the section
+     * @param baseline generated sections of the chunk for delta payloads, null otherwise
+     * @param s section index
+     * @return storage, null if empty
+     */
+    private BlockStorage decodeSection(ByteBuffer data, BlockStorage[] baseline, int s) {
+        byte tag = data.get();
+        if ((tag == SECTION_BASELINE || tag == SECTION_EDITS) && baseline == null) {
+            throw new IllegalStateException("Delta section outside a delta payload");
+        }
+        switch (tag) {
+            case SECTION_BASELINE:
+                return baseline[s];
+            case SECTION_EDITS:
+                fillIds(ids, baseline[s]);
+                decodeEdits(data);
+                return nonEmpty(new BlockStorage(Chunk.SECTION_SIZE, ByteBuffer.wrap(ids)));
+            case SECTION_EMPTY:
+                return null;
+            case SECTION_UNIFORM:
+                byte id = data.get();
+                return (id == BlockStorage.AIR) ? null : new BlockStorage(Chunk.SECTION_SIZE, id);
+            case SECTION_PACKED:
+            case SECTION_RUNS:
+                int paletteSize = (data.get() & 0xFF) + 1;
+                data.get(palette, 0, paletteSize);
+                if (tag == SECTION_RUNS) decodeRuns(data, paletteSize);
+                else decodePacked(data, bitsFor(paletteSize));
+                return nonEmpty(new BlockStorage(Chunk.SECTION_SIZE, ByteBuffer.wrap(ids)));
+            default:
+                throw new IllegalStateException("Unknown section tag " + tag);
+        }
+    }
+
+    private static BlockStorage nonEmpty(BlockStorage section) {
+        return section.isEmpty() ? null : section;
+    }
+
+    private void decodeRuns(ByteBuffer data, int paletteSize) {
+        int runs = getVarInt(data);
+        int position = 0;
+        for (int r = 0; r < runs; r++) {
+            byte id = palette[(data.get() & 0xFF) % paletteSize];
+            int end = position + getVarInt(data) + 1;
+            if (end > Chunk.SECTION_SIZE) throw new IllegalStateException("Run past the end of the section");
+            Arrays.fill(ids, position, end, id);
+            position = end;
+        }
+        if (position != Chunk.SECTION_SIZE) throw new IllegalStateException("Runs do not fill the section");
+    }
+
+    private void decodeEdits(ByteBuffer data) {
+        int runs = getVarInt(data);
+        int position = 0;
+        for (int r = 0; r < runs; r++) {
+            int start = position + getVarInt(data);
+            int end = start + getVarInt(data) + 1;
+            if (end > Chunk.SECTION_SIZE) throw new IllegalStateException("Edits past the end of the section");
+            data.get(ids, start, end - start);
+            position = end;
+        }
+    }
+
+    private void decodePacked(ByteBuffer data, int bits) {
+        int mask = (1 << bits) - 1;
+        int buffer = 0;
+        int buffered = 0;
+        for (int i = 0; i < Chunk.SECTION_SIZE; i++) {
+            while (buffered < bits) {
+                buffer |= (data.get() & 0xFF) << buffered;
+                buffered += 8;
+            }
+            ids[i] = palette[buffer & mask];
+            buffer >>>= bits;
+            buffered -= bits;
+        }
+    }
+
+    /**
+     * Bits per palette index, at least 1
+     */
+    private static int bitsFor(int paletteSize) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(paletteSize - 1));
+    }
+
+    private static int varIntSize(int value) {
+        return (value < 1 << 7) ? 1 : (value < 1 << 14) ? 2 : 3;
+    }
+
+    private int putVarInt(int value, int length) {
+        while (value >= 0x80) {
+            body[length++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        body[length++] = (byte) value;
+        return length;
+    }
+
+    private static int getVarInt(ByteBuffer data) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = data.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+            if (shift > 21) throw new IllegalStateException("Malformed length");
+        }
+    }
+
+    /**
+     * Chunks as written by the original world format, a Java serialized x, z, y array of ids
+     */
+    private static Chunk decodeLegacy(World world, Vector3i origin, byte[] bytes) {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            Chunk chunk = new Chunk(world, origin.x, origin.y, origin.z);
+            byte[][][] blockIds = (byte[][][]) ois.readObject();
+            for (int x = 0; x < Chunk.WIDTH; x++) {
+                for (int z = 0; z < Chunk.WIDTH; z++) {
+                    for (int y = 0; y < Chunk.HEIGHT; y++) {
+                        if (blockIds[x][z][y] != BlockStorage.AIR) {
+                            chunk.setBlock(x, y, z, BlockType.type(blockIds[x][z][y]));
+                        }
+                    }
+                }
+            }
+            chunk.compact();
+            return chunk;
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            System.err.println("Corrupt legacy chunk payload at " + origin);
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+}
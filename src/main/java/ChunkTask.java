@@ -0,0 +1,71 @@
+import org.joml.Vector3i;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Task on the worker pools, ordered by the priority of the chunk it works on
+ * Lower priority values run first
+ */
+public class ChunkTask extends FutureTask<Void> implements Comparable<ChunkTask> {
+
+    // Priority of tasks that are not tied to a chunk position, runs before everything else
+    public static final float URGENT = Float.NEGATIVE_INFINITY;
+
+    // Origin of the chunk this task works on, null if not tied to a position
+    public final Vector3i origin;
+    // Current priority, updated by the scheduler while queued
+    public volatile float priority;
+
+    // Has the task left the queue, by starting or being cancelled
+    private final AtomicBoolean dequeued = new AtomicBoolean();
+
+    public ChunkTask(Runnable task, Vector3i origin) {
+        super(task, null);
+        this.origin = origin;
+        this.priority = URGENT;
+    }
+
+    @Override
+    public void run() {
+        // Cancelled while queued
+        if (!dequeued.compareAndSet(false, true)) return;
+        Workers.started();
+        try {
+            super.run();
+            // A pool thread should not swallow exceptions silently
+            if (!isCancelled()) get();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            Workers.finished();
+        }
+    }
+
+    /**
+     * Cancel the task if no worker has picked it up yet
+     * A running task is left alone, its result is still delivered
+     * @return was the task cancelled
+     */
+    public boolean cancelIfQueued() {
+        if (!dequeued.compareAndSet(false, true)) return false;
+        cancel(false);
+        Workers.cancelled(this);
+        return true;
+    }
+
+    @Override
+    protected void done() {
+        // Cancelled before it ever ran
+        if (dequeued.compareAndSet(false, true)) Workers.cancelled(this);
+    }
+
+    @Override
+    public int compareTo(ChunkTask other) {
+        return Float.compare(priority, other.priority);
+    }
+
+}
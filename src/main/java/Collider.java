@@ -0,0 +1,135 @@
+import org.joml.Vector3f;
+
+/**
+ * Axis aligned box that moves through the block grid without passing into blocks
+ * A move is swept one axis at a time, y first, only looking at the blocks the leading face of the box passes,
+ * so it can not tunnel through blocks however large the step is
+ */
+public class Collider {
+
+    // Boxes touching a block face are not overlapping it
+    private static final float EPSILON = 0.001f;
+
+    // Box extents relative to the position it is attached to
+    public final float halfWidth;
+    public final float below;
+    public final float above;
+
+    // Which axes were blocked during the last move
+    public boolean hitX;
+    public boolean hitY;
+    public boolean hitZ;
+
+    // Scratch box bounds
+    private final float[] min = new float[3];
+    private final float[] max = new float[3];
+    private final int[] coords = new int[3];
+
+    /**
+     * @param halfWidth half the width of the box along x and z
+     * @param below extent of the box below the position
+     * @param above extent of the box above the position
+     */
+    public Collider(float halfWidth, float below, float above) {
+        this.halfWidth = halfWidth;
+        this.below = below;
+        this.above = above;
+    }
+
+    /**
+     * Move the position by step, stopping each axis at the first block in the way
+     * @param voxels blocks to collide with
+     * @param position position the box is attached to, updated in place
+     * @param step movement, the blocked components are not changed, see hitX, hitY, hitZ
+     */
+    public void move(VoxelSource voxels, Vector3f position, Vector3f step) {
+        float dy = sweep(voxels, position, 1, step.y);
+        hitY = dy != step.y;
+        position.y += dy;
+        float dx = sweep(voxels, position, 0, step.x);
+        hitX = dx != step.x;
+        position.x += dx;
+        float dz = sweep(voxels, position, 2, step.z);
+        hitZ = dz != step.z;
+        position.z += dz;
+    }
+
+    /**
+     * Is the box at the given position overlapping any block
+     * @param voxels
+     * @param position
+     * @return
+     */
+    public boolean overlaps(VoxelSource voxels, Vector3f position) {
+        bounds(position);
+        for (int x = floor(min[0] + EPSILON); x <= floor(max[0] - EPSILON); x++) {
+            for (int y = floor(min[1] + EPSILON); y <= floor(max[1] - EPSILON); y++) {
+                for (int z = floor(min[2] + EPSILON); z <= floor(max[2] - EPSILON); z++) {
+                    if (voxels.getBlockTypeAt(x, y, z) != BlockStorage.AIR) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * How far the box can move along the axis
+     * @param voxels
+     * @param position
+     * @param axis 0 x, 1 y, 2 z
+     * @param distance wanted movement along the axis
+     * @return allowed movement along the axis
+     */
+    private float sweep(VoxelSource voxels, Vector3f position, int axis, float distance) {
+        if (distance == 0) return 0;
+        bounds(position);
+        int u = (axis + 1) % 3;
+        int v = (axis + 2) % 3;
+        // Blocks overlapped by the box across the movement
+        int uMin = floor(min[u] + EPSILON), uMax = floor(max[u] - EPSILON);
+        int vMin = floor(min[v] + EPSILON), vMax = floor(max[v] - EPSILON);
+        if (distance > 0) {
+            // Layers of blocks entered by the leading face, nearest first
+            int first = floor(max[axis] - EPSILON) + 1;
+            int last = floor(max[axis] + distance - EPSILON);
+            for (int layer = first; layer <= last; layer++) {
+                if (layerSolid(voxels, axis, layer, u, uMin, uMax, v, vMin, vMax)) {
+                    return Math.max(0, layer - max[axis]);
+                }
+            }
+        } else {
+            int first = floor(min[axis] + EPSILON) - 1;
+            int last = floor(min[axis] + distance + EPSILON);
+            for (int layer = first; layer >= last; layer--) {
+                if (layerSolid(voxels, axis, layer, u, uMin, uMax, v, vMin, vMax)) {
+                    return Math.min(0, layer + 1 - min[axis]);
+                }
+            }
+        }
+        return distance;
+    }
+
+    private boolean layerSolid(VoxelSource voxels, int axis, int layer, int u, int uMin, int uMax, int v, int vMin, int vMax) {
+        int[] p = coords;
+        p[axis] = layer;
+        for (int i = uMin; i <= uMax; i++) {
+            p[u] = i;
+            for (int j = vMin; j <= vMax; j++) {
+                p[v] = j;
+                if (voxels.getBlockTypeAt(p[0], p[1], p[2]) != BlockStorage.AIR) return true;
+            }
+        }
+        return false;
+    }
+
+    private void bounds(Vector3f position) {
+        min[0] = position.x - halfWidth; max[0] = position.x + halfWidth;
+        min[1] = position.y - below;     max[1] = position.y + above;
+        min[2] = position.z - halfWidth; max[2] = position.z + halfWidth;
+    }
+
+    private static int floor(float f) {
+        return (int) Math.floor(f);
+    }
+
+}
@@ -0,0 +1,50 @@
+import org.joml.Vector3i;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Runnable job to write a checkpoint of the edit journal and delete the segments it replaces
+ */
+public class CompactJournalJob implements Runnable {
+
+    // Copies of touched chunks that were loaded
+    public List<Chunk> snapshots;
+    // Touched chunks that were archived, with their compressed payloads
+    public List<Vector3i> archived;
+    public List<byte[]> payloads;
+    public JSONObject worldJSON;
+    // Last segment whose edits are in this checkpoint
+    public int sealed;
+    public LongHashMap<Vector3i> touched;
+
+    public CompactJournalJob(List<Chunk> snapshots, List<Vector3i> archived, List<byte[]> payloads,
+                             JSONObject worldJSON, int sealed, LongHashMap<Vector3i> touched) {
+        this.snapshots = snapshots;
+        this.archived = archived;
+        this.payloads = payloads;
+        this.worldJSON = worldJSON;
+        this.sealed = sealed;
+        this.touched = touched;
+    }
+
+    @Override
+    public void run() {
+        try {
+            for (Chunk chunk : snapshots) EditJournal.checkpoint.write(chunk.key(), ChunkCodec.encodeDelta(chunk, true));
+            for (int i = 0; i < archived.size(); i++) {
+                EditJournal.checkpoint.write(Chunk.key(archived.get(i)), payloads.get(i));
+            }
+            // The segments may only go once the checkpoint is on the storage device
+            EditJournal.checkpoint.flush();
+            EditJournal.writeState(worldJSON);
+            EditJournal.deleteSegments(sealed);
+        } catch (IOException e) {
+            e.printStackTrace();
+            // Keep the segments, the next checkpoint covers these chunks again
+            EditJournal.retry(touched);
+        }
+    }
+
+}
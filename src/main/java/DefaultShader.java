@@ -12,8 +12,7 @@ public class DefaultShader extends Shader {
 
     @Override
     protected void bindAttributes() {
-        super.bindAttribute(0, "position");
-        super.bindAttribute(1, "textureCoords");
-        super.bindAttribute(2, "normal");
+        super.bindAttribute(0, "packedVertex");
+        super.bindAttribute(1, "packedTexture");
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,497 @@
+import org.joml.Vector3i;
+import org.json.JSONObject;
+
+import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append only journal of block edits, so edits survive a crash without rewriting the world
+ * Edits are recorded by the world and appended to the current segment file by a background thread,
+ * every so often the chunks they touched are checkpointed into region files and the segments
+ * holding those edits are deleted
+ * Journal directory layout:
+ *  world.json          world state of the session, and the file it was imported from
+ *  edits.<n>.log       segments of batches: count, CRC-32 of the records, records
+ *  checkpoint/         region files with the chunks of all compacted segments
+ */
+public class EditJournal {
+
+    // Directory holding the journal of the current session
+    public static final Path DIRECTORY = Paths.get(System.getProperty("journal",
+            System.getProperty("user.home") + File.separator + ".blockworldeditor"));
+    // Bytes of journaled edits after which the touched chunks are checkpointed
+    public static final long COMPACT_BYTES = Long.getLong("journalCompact", 4) << 20;
+    // Longest time in ms before edits are checkpointed
+    public static final long COMPACT_INTERVAL = 60_000;
+    // Time in ms before a compaction that could not start is tried again
+    private static final long COMPACT_RETRY = 1_000;
+    // Time in ms between writes of the recorded edits
+    private static final long WRITE_INTERVAL = 100;
+    // Bytes per edit: timestamp, x, y, z, previous id, new id
+    static final int RECORD_SIZE = 20;
+    private static final int BATCH_HEADER_SIZE = 8;
+
+    // Edits recorded but not written yet
+    private static ByteBuffer buffer = ByteBuffer.allocate(1024 * RECORD_SIZE);
+    private static int count;
+    // Chunks touched since the last checkpoint
+    private static LongHashMap<Vector3i> dirty = new LongHashMap<>();
+    private static final Lock lock = new ReentrantLock(true);
+
+    // Segment being appended to, null while no session is running
+    private static FileChannel segment;
+    private static int segmentId;
+    // Held while writing to or switching the segment
+    private static final Lock segmentLock = new ReentrantLock(true);
+    private static Thread writer;
+
+    // Checkpointed chunks, a crash while writing a checkpoint leaves the previous one intact
+    static final RegionStore checkpoint = new RegionStore(DIRECTORY.resolve("checkpoint"), true);
+    private static ChunkTask compaction;
+    private static long lastCompaction, retryAt;
+    // File the world of this session was imported from, null if it was generated
+    private static File imported;
+
+    // Statistics
+    public static int edits, compactions;
+    public static long journalBytes;
+
+    /**
+     * Start the journal of a new session, dropping the previous one
+     * @param world
+     * @param importedFrom world file the world was imported from, null if there is none
+     */
+    public static void start(World world, File importedFrom) {
+        awaitCompaction();
+        closeSegment();
+        lock.lock();
+        buffer.clear();
+        count = 0;
+        dirty.clear();
+        journalBytes = 0;
+        lock.unlock();
+        try {
+            for (Path path : segments()) Files.delete(path);
+            checkpoint.clear();
+            imported = importedFrom;
+            writeState(stateJSON(world));
+            lastCompaction = System.currentTimeMillis();
+            openSegment(0);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Rebuild the world of the previous session from its checkpoint and journal, if the user wants to
+     * All recovered chunks are put in the archive, the world still has to load them,
+     * and the journal carries on with the recovered session
+     * @param app
+     * @return recovered world, null if there was nothing to recover or the user declined
+     */
+    public static World recover(App app) {
+        try {
+            Path state = DIRECTORY.resolve("world.json");
+            List<Path> segments = segments();
+            long journaled = 0;
+            for (Path path : segments) journaled += Files.size(path);
+            List<Vector3i> checkpointed = checkpoint.origins();
+            if (!Files.exists(state) || (journaled == 0 && checkpointed.isEmpty())) return null;
+            JSONObject worldJSON = new JSONObject(new String(Files.readAllBytes(state), StandardCharsets.UTF_8));
+            // The last session ended cleanly
+            if (worldJSON.optBoolean("closed")) return null;
+            int answer = JOptionPane.showConfirmDialog(new JDialog(),
+                    String.format("Recover the edits of the last session?\n%d checkpointed chunks, %.1f KB journal",
+                            checkpointed.size(), journaled / 1024f), "Recover", JOptionPane.YES_NO_OPTION);
+            if (answer != JOptionPane.YES_OPTION) return null;
+
+            long start = System.nanoTime();
+            World world = WorldManager.fromJSON(app, worldJSON);
+            ChunkArchiver.reset();
+            // Chunks that were not edited come from the world file, if it is still there
+            imported = worldJSON.has("imported") ? new File(worldJSON.getString("imported")) : null;
+            if (imported != null && imported.exists()) {
+                ZipChunkSource source = new ZipChunkSource(imported);
+                byte[] indexData = source.readEntry("world.json");
+                WorldManager.indexChunks(source, new JSONObject(new String(indexData, StandardCharsets.UTF_8)));
+                ChunkArchiver.imported = source;
+            }
+            for (Vector3i origin : checkpointed) ChunkArchiver.put(origin, checkpoint.read(Chunk.key(origin)));
+
+            // Replay the journal on top of the checkpoint, edits are absolute so replaying
+            // some that are already in the checkpoint does no harm
+            LongHashMap<Chunk> replayed = new LongHashMap<>();
+            int replayedEdits = replay(world, segments, replayed);
+            // Checkpoint the replayed chunks right away, so the journal can start over
+            for (Chunk chunk : replayed) {
+                byte[] payload = ChunkCodec.encodeDelta(chunk, true);
+                checkpoint.write(chunk.key(), payload);
+                ChunkArchiver.put(chunk.origin, payload);
+            }
+            checkpoint.flush();
+            for (Path path : segments) Files.delete(path);
+            lastCompaction = System.currentTimeMillis();
+            openSegment(0);
+            System.out.printf("Recovered %d checkpointed chunks and %d edits in %d chunks in %.0f ms%n",
+                    checkpointed.size(), replayedEdits, replayed.size(), (System.nanoTime() - start) / 1e6);
+            return world;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Apply the edits of the journal segments to the chunks they touched, in order
+     * @param world
+     * @param segments
+     * @param replayed touched chunks by chunk key, loaded from the archive or generated on first touch
+     * @return number of replayed edits
+     * @throws IOException
+     */
+    static int replay(World world, List<Path> segments, LongHashMap<Chunk> replayed) throws IOException {
+        int replayedEdits = 0;
+        for (Path path : segments) {
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(path));
+            while (nextBatch(data)) {
+                int records = data.getInt();
+                data.getInt();
+                for (int i = 0; i < records; i++) {
+                    data.getLong();
+                    int x = data.getInt();
+                    int y = data.getShort();
+                    int z = data.getInt();
+                    data.get();
+                    byte id = data.get();
+                    long key = Chunk.key(x, z);
+                    Chunk chunk = replayed.get(key);
+                    if (chunk == null) {
+                        chunk = world.loadChunkNow(new Vector3i(Chunk.keyOriginX(key), 0, Chunk.keyOriginZ(key)));
+                        replayed.put(key, chunk);
+                    }
+                    int localX = x - chunk.origin.x;
+                    int localZ = z - chunk.origin.z;
+                    if (id == BlockStorage.AIR) chunk.removeBlock(localX, y, localZ);
+                    else chunk.setBlock(localX, y, localZ, BlockType.type(id));
+                    replayedEdits++;
+                }
+            }
+        }
+        return replayedEdits;
+    }
+
+    /**
+     * Journal an edit, called by the world for every block that changed
+     * @param x world space block coords
+     * @param y
+     * @param z
+     * @param previous block type id before the edit
+     * @param id block type id after the edit
+     */
+    public static void record(int x, int y, int z, byte previous, byte id) {
+        if (segment == null) return;
+        lock.lock();
+        if (buffer.remaining() < RECORD_SIZE) {
+            ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+        buffer.putLong(System.currentTimeMillis());
+        buffer.putInt(x);
+        buffer.putShort((short) y);
+        buffer.putInt(z);
+        buffer.put(previous);
+        buffer.put(id);
+        count++;
+        long key = Chunk.key(x, z);
+        if (!dirty.containsKey(key)) dirty.put(key, new Vector3i(Chunk.keyOriginX(key), 0, Chunk.keyOriginZ(key)));
+        edits++;
+        journalBytes += RECORD_SIZE;
+        lock.unlock();
+    }
+
+    /**
+     * Checkpoint the touched chunks if enough edits piled up or it has been a while
+     * Called by the main thread
+     * @param world
+     */
+    public static void maybeCompact(World world) {
+        if (segment == null || (compaction != null && !compaction.isDone())) return;
+        long now = System.currentTimeMillis();
+        if (now < retryAt) return;
+        if (journalBytes < COMPACT_BYTES && now - lastCompaction < COMPACT_INTERVAL) return;
+        // Some chunk is on its way between the archive and the world, give it time to settle
+        if (!compact(world)) retryAt = now + COMPACT_RETRY;
+    }
+
+    /**
+     * Snapshot the chunks touched since the last checkpoint, switch to a new segment and
+     * let the io workers write the checkpoint and delete the old segments
+     * Must be called by the main thread, as that is the one editing the chunks
+     * @param world
+     * @return is a compaction running, false if some chunk is being loaded and it has to wait
+     */
+    public static boolean compact(World world) {
+        lastCompaction = System.currentTimeMillis();
+        lock.lock();
+        LongHashMap<Vector3i> touched = dirty;
+        lock.unlock();
+        if (touched.isEmpty()) return false;
+        List<Chunk> snapshots = new ArrayList<>();
+        List<Vector3i> archived = new ArrayList<>();
+        List<byte[]> payloads = new ArrayList<>();
+        try {
+            for (Vector3i origin : touched) {
+                Chunk chunk = world.chunks.get(Chunk.key(origin));
+                if (chunk != null) {
+                    snapshots.add(chunk.snapshot());
+                    continue;
+                }
+                byte[] payload = ChunkArchiver.archivedPayload(origin);
+                // On its way between the archive and the world, try again later
+                if (payload == null) return false;
+                archived.add(origin);
+                payloads.add(payload);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        // Everything up to here is in the snapshots, seal the segment holding it
+        segmentLock.lock();
+        int sealed = segmentId;
+        try {
+            writeBatch();
+            segment.close();
+            openSegment(sealed + 1);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            segmentLock.unlock();
+        }
+        lock.lock();
+        dirty = new LongHashMap<>();
+        journalBytes = 0;
+        lock.unlock();
+        CompactJournalJob job = new CompactJournalJob(snapshots, archived, payloads, stateJSON(world), sealed, touched);
+        compaction = Workers.io(job);
+        return true;
+    }
+
+    /**
+     * Wait for a running compaction to finish
+     */
+    static void awaitCompaction() {
+        if (compaction == null) return;
+        try {
+            compaction.get();
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Mark chunks of a failed checkpoint as touched again, so their edits end up in the next one
+     * @param touched
+     */
+    static void retry(LongHashMap<Vector3i> touched) {
+        lock.lock();
+        for (Vector3i origin : touched) {
+            long key = Chunk.key(origin);
+            if (!dirty.containsKey(key)) dirty.put(key, origin);
+        }
+        lock.unlock();
+    }
+
+    /**
+     * Delete all segments up to and including the given one, their edits are checkpointed
+     * @param sealed
+     * @throws IOException
+     */
+    static void deleteSegments(int sealed) throws IOException {
+        for (Path path : segments()) {
+            if (segmentId(path) <= sealed) Files.delete(path);
+        }
+        compactions++;
+    }
+
+    /**
+     * Checkpoint all recorded edits and stop journaling
+     * A journal closed this way is not offered for recovery, if the checkpoint fails the segments
+     * are kept and the next session offers them
+     * @param world world of the session, null if there is none
+     */
+    public static void close(World world) {
+        awaitCompaction();
+        if (segment == null) return;
+        if (world != null) {
+            lock.lock();
+            boolean edited = !dirty.isEmpty();
+            lock.unlock();
+            if (edited && compact(world)) awaitCompaction();
+        }
+        closeSegment();
+        lock.lock();
+        boolean checkpointed = world != null && dirty.isEmpty();
+        lock.unlock();
+        if (!checkpointed) return;
+        try {
+            // Everything is in the checkpoint, truncate the journal
+            for (Path path : segments()) Files.delete(path);
+            JSONObject worldJSON = stateJSON(world);
+            worldJSON.put("closed", true);
+            writeState(worldJSON);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * World state to keep with the journal
+     * @param world
+     * @return
+     */
+    private static JSONObject stateJSON(World world) {
+        JSONObject worldJSON = WorldManager.toJSON(world);
+        if (imported != null) worldJSON.put("imported", imported.getAbsolutePath());
+        return worldJSON;
+    }
+
+    /**
+     * Replace the world state of the journal
+     * @param worldJSON
+     * @throws IOException
+     */
+    static void writeState(JSONObject worldJSON) throws IOException {
+        Files.createDirectories(DIRECTORY);
+        Path partial = DIRECTORY.resolve("world.json.part");
+        Files.write(partial, worldJSON.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(partial, DIRECTORY.resolve("world.json"), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Position the buffer at the records of the next intact batch
+     * A batch cut short by a crash, and anything after it, is ignored
+     * @param data
+     * @return is there such a batch
+     */
+    private static boolean nextBatch(ByteBuffer data) {
+        if (data.remaining() < BATCH_HEADER_SIZE) return false;
+        int records = data.getInt(data.position());
+        int crc = data.getInt(data.position() + 4);
+        int length = records * RECORD_SIZE;
+        if (records <= 0 || data.remaining() - BATCH_HEADER_SIZE < length) return false;
+        CRC32 check = new CRC32();
+        check.update(data.array(), data.position() + BATCH_HEADER_SIZE, length);
+        return (int) check.getValue() == crc;
+    }
+
+    private static void openSegment(int id) throws IOException {
+        segmentLock.lock();
+        try {
+            Files.createDirectories(DIRECTORY);
+            segment = FileChannel.open(DIRECTORY.resolve("edits." + id + ".log"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            segmentId = id;
+        } finally {
+            segmentLock.unlock();
+        }
+        if (writer != null) return;
+        writer = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(WRITE_INTERVAL);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                flush();
+            }
+        }, "edit-journal");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(EditJournal::flush));
+    }
+
+    private static void closeSegment() {
+        segmentLock.lock();
+        try {
+            writeBatch();
+            if (segment != null) segment.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            segment = null;
+            segmentLock.unlock();
+        }
+    }
+
+    /**
+     * Append the recorded edits to the current segment and force them to the storage device
+     */
+    static void flush() {
+        segmentLock.lock();
+        try {
+            writeBatch();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            segmentLock.unlock();
+        }
+    }
+
+    // Must hold segmentLock
+    private static void writeBatch() throws IOException {
+        lock.lock();
+        int records = count;
+        byte[] batch = Arrays.copyOf(buffer.array(), buffer.position());
+        buffer.clear();
+        count = 0;
+        lock.unlock();
+        if (records == 0 || segment == null) return;
+        CRC32 crc = new CRC32();
+        crc.update(batch);
+        ByteBuffer header = ByteBuffer.allocate(BATCH_HEADER_SIZE).putInt(records).putInt((int) crc.getValue());
+        header.flip();
+        ByteBuffer[] data = {header, ByteBuffer.wrap(batch)};
+        while (data[1].hasRemaining()) segment.write(data);
+        segment.force(false);
+    }
+
+    /**
+     * Segment files in order
+     * @return
+     * @throws IOException
+     */
+    private static List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        File[] files = DIRECTORY.toFile().listFiles((dir, name) -> name.startsWith("edits.") && name.endsWith(".log"));
+        if (files == null) return segments;
+        for (File file : files) segments.add(file.toPath());
+        segments.sort((a, b) -> Integer.compare(segmentId(a), segmentId(b)));
+        return segments;
+    }
+
+    private static int segmentId(Path path) {
+        String name = path.getFileName().toString();
+        return Integer.parseInt(name.substring("edits.".length(), name.length() - ".log".length()));
+    }
+
+}
@@ -0,0 +1,42 @@
+import org.joml.Vector3i;
+
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * Runnable job to encode and compress one chunk entry of a world export
+ */
+public class ExportChunkJob implements Runnable {
+
+    public Vector3i origin;
+    // Snapshot of a chunk in memory, null to read the chunk from the archive
+    public Chunk snapshot;
+
+    // Results, payload is null if the chunk was not available
+    public byte[] payload;
+    public long crc;
+    public ChunkTask task;
+
+    public ExportChunkJob(Vector3i origin, Chunk snapshot) {
+        this.origin = origin;
+        this.snapshot = snapshot;
+    }
+
+    @Override
+    public void run() {
+        if (snapshot != null) {
+            payload = ChunkCodec.encodeDelta(snapshot, true);
+        } else {
+            try {
+                byte[] data = ChunkArchiver.readArchived(origin);
+                if (data != null) payload = ChunkCodec.compress(data);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (payload == null) return;
+        CRC32 checksum = new CRC32();
+        checksum.update(payload);
+        crc = checksum.getValue();
+    }
+}
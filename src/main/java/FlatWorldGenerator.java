@@ -18,32 +18,31 @@ public class FlatWorldGenerator extends WorldGenerator {
         this.l2t = l2t;
         this.l3 = l3;
         this.l3t = l3t;
+        config.put("type", "flat");
+        config.put("l1", String.valueOf(l1));
+        config.put("l1t", l1t.name());
+        config.put("l2", String.valueOf(l2));
+        config.put("l2t", l2t.name());
+        config.put("l3", String.valueOf(l3));
+        config.put("l3t", l3t.name());
     }
 
     @Override
     public Chunk generate(World world, Chunk chunk) {
         // Chunk must be empty for safety
-        if (!chunk.blockList.isEmpty()) return chunk;
+        if (!chunk.isEmpty()) return chunk;
         // Generate the flat chunk based on the supplied layer configuration
         for (int x = 0; x < Chunk.WIDTH; x++) {
             for (int z = 0; z < Chunk.WIDTH; z++) {
                 // Set the first layer
-                for (int y = 0; y < l1; y++) {
-                    if (y < 0 || y >= Chunk.HEIGHT) continue;
-                    chunk.setBlock(x, y, z, new Block(l1t));
-                }
+                chunk.fillColumn(x, z, 0, l1, l1t);
                 // Set the second layer
-                for (int y = l1; y < l1 + l2; y++) {
-                    if (y < 0 || y >= Chunk.HEIGHT) continue;
-                    chunk.setBlock(x, y, z, new Block(l2t));
-                }
+                chunk.fillColumn(x, z, l1, l1 + l2, l2t);
                 // Set the third layer
-                for (int y = l1 + l2; y < l1 + l2 + l3; y++) {
-                    if (y < 0 || y >= Chunk.HEIGHT) continue;
-                    chunk.setBlock(x, y, z, new Block(l3t));
-                }
+                chunk.fillColumn(x, z, l1 + l2, l1 + l2 + l3, l3t);
             }
         }
+        chunk.finishColumns();
         return chunk;
     }
 }
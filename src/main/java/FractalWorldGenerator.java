@@ -0,0 +1,175 @@
+/**
+ * Generates terrain from a 3D density field, so it can have overhangs, floating rocks and caves
+ * The density is several octaves of 3D noise plus a gradient that turns it into air above the surface height,
+ * voxels with a positive density are solid
+ * Noise is only sampled on a coarse lattice of cells, and trilinearly interpolated in between
+ */
+public class FractalWorldGenerator extends WorldGenerator {
+
+    // Every octave has twice the frequency and half the weight of the previous one
+    private static final float LACUNARITY = 2f;
+    private static final float PERSISTENCE = 0.5f;
+    // Cave noise above this value carves the terrain
+    private static final float CAVE_THRESHOLD = 0.5f;
+    private static final float CAVE_STRENGTH = 8f;
+    // Number of dirt blocks below the grass
+    private static final int DIRT_DEPTH = 3;
+
+    // Random seed
+    public long seed;
+    // Height around which the surface lies
+    public int height;
+    // Height over which the density goes from solid to air, larger makes steeper and taller terrain
+    public int amplitude;
+    // Wavelength of the first octave in blocks
+    public float frequency;
+    // Number of noise octaves
+    public int octaves;
+    // Size of the cells of the noise lattice, must divide the chunk dimensions
+    public int cellWidth;
+    public int cellHeight;
+
+    public FractalWorldGenerator(long seed, int height, int amplitude, float frequency, int octaves) {
+        this(seed, height, amplitude, frequency, octaves, 4, 8);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the cells do not evenly divide a chunk
+     */
+    public FractalWorldGenerator(long seed, int height, int amplitude, float frequency, int octaves, int cellWidth, int cellHeight) {
+        super();
+        if (cellWidth <= 0 || Chunk.WIDTH % cellWidth != 0 || cellHeight <= 0 || Chunk.HEIGHT % cellHeight != 0) {
+            throw new IllegalArgumentException("Lattice cells of " + cellWidth + "x" + cellHeight + " do not divide a chunk");
+        }
+        this.seed = seed;
+        this.height = height;
+        this.amplitude = amplitude;
+        this.frequency = frequency;
+        this.octaves = octaves;
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+        config.put("type", "fractal");
+        config.put("seed", String.valueOf(seed));
+        config.put("height", String.valueOf(height));
+        config.put("amplitude", String.valueOf(amplitude));
+        config.put("frequency", String.valueOf(frequency));
+        config.put("octaves", String.valueOf(octaves));
+        config.put("cellWidth", String.valueOf(cellWidth));
+        config.put("cellHeight", String.valueOf(cellHeight));
+    }
+
+    @Override
+    public Chunk generate(World world, Chunk chunk) {
+        // Chunk must be empty for safety
+        if (!chunk.isEmpty()) return chunk;
+        int cellsX = Chunk.WIDTH / cellWidth, cellsY = Chunk.HEIGHT / cellHeight;
+        int latticeWidth = cellsX + 1, latticeHeight = cellsY + 1;
+        float[] density = sampleDensity(chunk, latticeWidth, latticeHeight);
+        // Density of the current column at every lattice height, and its block types
+        float[] column = new float[latticeHeight];
+        BlockType[] types = new BlockType[Chunk.HEIGHT];
+        // Interpolation weights of the voxels within a cell
+        float[] fractions = new float[cellHeight];
+        for (int dy = 0; dy < cellHeight; dy++) fractions[dy] = (float) dy / cellHeight;
+        for (int z = 0; z < Chunk.WIDTH; z++) {
+            int cz = z / cellWidth;
+            float fz = (float) (z % cellWidth) / cellWidth;
+            for (int x = 0; x < Chunk.WIDTH; x++) {
+                int cx = x / cellWidth;
+                float fx = (float) (x % cellWidth) / cellWidth;
+                // Interpolate the column between the four surrounding lattice columns
+                for (int ly = 0; ly < latticeHeight; ly++) {
+                    int i = (ly * latticeWidth + cz) * latticeWidth + cx;
+                    float d0 = lerp(density[i], density[i + 1], fx);
+                    float d1 = lerp(density[i + latticeWidth], density[i + latticeWidth + 1], fx);
+                    column[ly] = lerp(d0, d1, fz);
+                }
+                fillColumn(chunk, x, z, column, fractions, types);
+            }
+        }
+        chunk.finishColumns();
+        return chunk;
+    }
+
+    /**
+     * Sample the density on the lattice of the chunk, including the lattice points on its far edges
+     * @param chunk
+     * @param latticeWidth lattice points along x and z
+     * @param latticeHeight lattice points along y
+     * @return density at lattice point (x, y, z) at index (y * latticeWidth + z) * latticeWidth + x
+     */
+    private float[] sampleDensity(Chunk chunk, int latticeWidth, int latticeHeight) {
+        int points = latticeWidth * latticeHeight * latticeWidth;
+        float[] density = new float[points];
+        float[] samples = new float[points];
+        int x0 = Math.floorDiv(chunk.origin.x, cellWidth), z0 = Math.floorDiv(chunk.origin.z, cellWidth);
+        // Sum the octaves, normalized so the sum stays within [-1, 1]
+        float weight = 1, total = 0;
+        for (int o = 0; o < octaves; o++) total += (float) Math.pow(PERSISTENCE, o);
+        float scale = 1;
+        for (int o = 0; o < octaves; o++) {
+            OpenSimplex2.noise3Box(seed + o, samples, x0, 0, z0, latticeWidth, latticeHeight, latticeWidth,
+                    frequency / (cellWidth * scale), frequency / (cellHeight * scale));
+            float w = weight / total;
+            for (int i = 0; i < points; i++) density[i] += samples[i] * w;
+            weight *= PERSISTENCE;
+            scale *= LACUNARITY;
+        }
+        // Carve caves where the cave noise is high
+        OpenSimplex2.noise3Box(~seed, samples, x0, 0, z0, latticeWidth, latticeHeight, latticeWidth,
+                frequency / (4 * cellWidth), frequency / (4 * cellHeight));
+        for (int i = 0; i < points; i++) {
+            if (samples[i] > CAVE_THRESHOLD) density[i] -= (samples[i] - CAVE_THRESHOLD) * CAVE_STRENGTH;
+        }
+        // Solid below the surface height, air above it
+        int layer = latticeWidth * latticeWidth;
+        for (int ly = 0, i = 0; ly < latticeHeight; ly++) {
+            float gradient = (float) (height - ly * cellHeight) / amplitude;
+            for (int end = i + layer; i < end; i++) density[i] += gradient;
+        }
+        return density;
+    }
+
+    /**
+     * Fill a column from its density at the lattice heights
+     * Solid voxels right below air become grass, followed by some dirt and then stone
+     * The bottom voxel is always solid, so there are no holes out of the world
+     * @param chunk
+     * @param x
+     * @param z
+     * @param column density at every lattice height
+     * @param fractions interpolation weight of every height within a cell
+     * @param types scratch space for the block types of the column, null for air
+     */
+    private void fillColumn(Chunk chunk, int x, int z, float[] column, float[] fractions, BlockType[] types) {
+        // Depth below the last air voxel, from the top down
+        int depth = 0;
+        for (int ly = Chunk.HEIGHT / cellHeight - 1; ly >= 0; ly--) {
+            for (int dy = cellHeight - 1; dy >= 0; dy--) {
+                int y = ly * cellHeight + dy;
+                float d = lerp(column[ly], column[ly + 1], fractions[dy]);
+                if (d <= 0 && y > 0) {
+                    types[y] = null;
+                    depth = 0;
+                    continue;
+                }
+                if (depth == 0) types[y] = BlockType.GRASS;
+                else if (depth <= DIRT_DEPTH) types[y] = BlockType.DIRT;
+                else types[y] = BlockType.STONE;
+                depth++;
+            }
+        }
+        // Fill runs of the same type
+        int start = 0;
+        for (int y = 1; y <= Chunk.HEIGHT; y++) {
+            if (y < Chunk.HEIGHT && types[y] == types[start]) continue;
+            if (types[start] != null) chunk.fillColumn(x, z, start, y, types[start]);
+            start = y;
+        }
+    }
+
+    private static float lerp(float a, float b, float t) {
+        return a + (b - a) * t;
+    }
+
+}
@@ -16,6 +16,7 @@ public class HillWorldGenerator extends WorldGenerator {
         this.amplitude = amplitude;
         this.frequency = frequency;
         this.height = height;
+        config.put("type", "hill");
         config.put("seed", String.valueOf(seed));
         config.put("height", String.valueOf(height));
         config.put("amplitude", String.valueOf(amplitude));
@@ -25,24 +26,22 @@ public class HillWorldGenerator extends WorldGenerator {
     @Override
     public Chunk generate(World world, Chunk chunk) {
         // Chunk must be empty for safety
-        if (!chunk.blockList.isEmpty()) return chunk;
+        if (!chunk.isEmpty()) return chunk;
+        // Sample noise based on frequency for all columns at once
+        float[] samples = new float[Chunk.WIDTH * Chunk.WIDTH];
+        OpenSimplex2.noise2Grid(seed, samples, chunk.origin.x, chunk.origin.z, Chunk.WIDTH, Chunk.WIDTH, frequency);
         // Generate the hilly chunk based on the supplied configuration
-        for (int x = 0; x < Chunk.WIDTH; x++) {
-            for (int z = 0; z < Chunk.WIDTH; z++) {
-                // Sample noise based on frequency
-                float sample = OpenSimplex2.noise2(seed, (chunk.origin.x + x) / frequency, (chunk.origin.z + z) / frequency);
+        for (int z = 0; z < Chunk.WIDTH; z++) {
+            for (int x = 0; x < Chunk.WIDTH; x++) {
                 // Calculate the resulting height
-                int h = height + (int) (sample * amplitude);
+                int h = height + (int) (samples[z * Chunk.WIDTH + x] * amplitude);
                 // Fill up to height with different block types
-                for (int y = 0; y < h; y++) {
-                    if (y >= Chunk.HEIGHT) break;
-                    BlockType t = BlockType.STONE;
-                    if (y == h - 1) t = BlockType.GRASS;
-                    else if (y >= h - 5) t = BlockType.DIRT;
-                    chunk.setBlock(x, y, z, new Block(t));
-                }
+                chunk.fillColumn(x, z, 0, h - 5, BlockType.STONE);
+                chunk.fillColumn(x, z, h - 5, h - 1, BlockType.DIRT);
+                chunk.fillColumn(x, z, h - 1, h, BlockType.GRASS);
             }
         }
+        chunk.finishColumns();
         return chunk;
     }
 }
@@ -0,0 +1,206 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Open addressing hash map with primitive long keys, used to look up chunks by their packed position
+ * Avoids boxing keys and the per entry objects of java.util.HashMap
+ * Null values are not allowed, a null value marks an empty slot
+ * Not thread safe, iterating values while modifying the map is not supported
+ * @param <V> value type
+ */
+public class LongHashMap<V> implements Iterable<V> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+    // Grow when the table is half full, keeps probe sequences short
+    private int threshold;
+
+    public LongHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expected number of entries the map should hold without growing
+     */
+    public LongHashMap(int expected) {
+        allocate(Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(expected, 1) * 2 - 1) << 1));
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        threshold = capacity / 2;
+    }
+
+    /**
+     * Spread all key bits over the table index, packed positions differ in both halves (murmur3 finalizer)
+     */
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    /**
+     * Slot holding the key, or the empty slot where it would go
+     */
+    private int slot(long key) {
+        int i = hash(key) & mask;
+        while (values[i] != null && keys[i] != key) i = (i + 1) & mask;
+        return i;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        return (V) values[slot(key)];
+    }
+
+    public boolean containsKey(long key) {
+        return values[slot(key)] != null;
+    }
+
+    /**
+     * Map the key to the value
+     * @param key
+     * @param value not null
+     * @return previous value, null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) throw new IllegalArgumentException("LongHashMap does not allow null values");
+        int i = slot(key);
+        V previous = (V) values[i];
+        if (previous == null) {
+            if (size + 1 > threshold) {
+                rehash(keys.length * 2);
+                i = slot(key);
+            }
+            keys[i] = key;
+            size++;
+        }
+        values[i] = value;
+        return previous;
+    }
+
+    /**
+     * Remove the key
+     * @param key
+     * @return removed value, null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i = slot(key);
+        V previous = (V) values[i];
+        if (previous == null) return null;
+        // Shift following entries of the probe sequence back, so no tombstones are needed
+        int hole = i;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (values[j] == null) break;
+            int home = hash(keys[j]) & mask;
+            // Move the entry if its home slot does not lie cyclically in (hole, j]
+            if (hole <= j ? (home <= hole || home > j) : (home <= hole && home > j)) {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                hole = j;
+            }
+        }
+        values[hole] = null;
+        size--;
+        return previous;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        if (size == 0) return;
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Number of slots, for iterating entries with keyAt / valueAt
+     * @return
+     */
+    public int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * Key in the given slot, only meaningful if valueAt(slot) is not null
+     * @param slot
+     * @return
+     */
+    public long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * Value in the given slot
+     * @param slot
+     * @return value, null if the slot is empty
+     */
+    @SuppressWarnings("unchecked")
+    public V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] == null) continue;
+            int j = slot(oldKeys[i]);
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+
+    /**
+     * Iterate over all values
+     * @return
+     */
+    @Override
+    public Iterator<V> iterator() {
+        return new Iterator<V>() {
+            int next = advance(0);
+
+            private int advance(int i) {
+                while (i < values.length && values[i] == null) i++;
+                return i;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < values.length;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public V next() {
+                if (next >= values.length) throw new NoSuchElementException();
+                V value = (V) values[next];
+                next = advance(next + 1);
+                return value;
+            }
+        };
+    }
+
+}
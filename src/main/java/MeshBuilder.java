@@ -0,0 +1,271 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Builds chunk meshes straight into direct buffers that can be uploaded to the gpu as is
+ * One builder is kept per thread so its scratch space is reused between chunks,
+ * and output buffers are pooled and handed back after uploading
+ */
+public class MeshBuilder {
+
+    // Packed vertex layout, two unsigned ints per vertex, decoded in the vertex shaders
+    // Vertex:  local x (6 bits) | local y (9 bits) | local z (6 bits) | face (3 bits)
+    // Texture: texture u (6 bits) | texture v (6 bits) | tile x (8 bits) | tile y (8 bits)
+    public static final int VERTEX_SIZE = 2 * Integer.BYTES;
+    public static final int VERTEX_OFFSET = 0;
+    public static final int TEXTURE_OFFSET = Integer.BYTES;
+    private static final int X_SHIFT = 0, Y_SHIFT = 6, Z_SHIFT = 15, FACE_SHIFT = 21;
+    private static final int U_SHIFT = 0, V_SHIFT = 6, TILE_X_SHIFT = 12, TILE_Y_SHIFT = 20;
+    private static final int COORD_MASK = 0x3F, Y_MASK = 0x1FF, FACE_MASK = 0x7, TILE_MASK = 0xFF;
+
+    // Axis of the normal per face
+    static final int[] NORMAL_AXIS = new int[]{2, 0, 2, 0, 1, 1};
+    // Texture coordinates of the 6 vertices of a face, in tiles
+    static final int[] FACE_TEX_U = new int[]{1, 1, 0, 0, 0, 1};
+    static final int[] FACE_TEX_V = new int[]{0, 1, 1, 1, 0, 0};
+    // Axis along which the texture u / v coordinate runs per face, used to repeat textures on merged quads
+    static final int[] TEX_U_AXIS = new int[]{0, 2, 0, 2, 0, 2};
+    static final int[] TEX_V_AXIS = new int[]{1, 1, 1, 1, 2, 0};
+
+    // Texture key of selected blocks, block type ids use the keys below it
+    static final int SELECTED_KEY = 256;
+    // Texture tile in the sprite map per texture key, already shifted into place
+    static final int[] TILES = new int[SELECTED_KEY + 1];
+    static {
+        for (BlockType t : BlockType.values()) {
+            TILES[t.id() & 0xFF] = packTile(Block.textureLocation.get(t).x, Block.textureLocation.get(t).y);
+        }
+        TILES[SELECTED_KEY] = packTile(Block.selectTextureLocation.x, Block.selectTextureLocation.y);
+    }
+
+    // Pooled output buffers per power of two capacity
+    private static final int MIN_POOLED_SHIFT = 16;
+    private static final int MAX_POOLED_PER_SIZE = 32;
+    private static final List<ConcurrentLinkedQueue<ByteBuffer>> pool = new ArrayList<>();
+    static {
+        for (int i = 0; i < Integer.SIZE; i++) pool.add(new ConcurrentLinkedQueue<>());
+    }
+
+    private static final ThreadLocal<MeshBuilder> builders = ThreadLocal.withInitial(MeshBuilder::new);
+
+    // Results of the last build
+    public int vertexCount;
+    public int faceCount;
+
+    // Scratch space
+    private final int[] mask = new int[Chunk.WIDTH * Chunk.WIDTH];
+    private final int[] dims = new int[]{Chunk.WIDTH, Chunk.SECTION_HEIGHT, Chunk.WIDTH};
+    private final int[] p = new int[3];
+    private final int[] ext = new int[3];
+    private ByteBuffer buffer;
+
+    /**
+     * Get the builder of the current thread
+     * @return
+     */
+    public static MeshBuilder get() {
+        return builders.get();
+    }
+
+    /**
+     * Pack a vertex position and the face it belongs to
+     * @param x local x, 0 to WIDTH inclusive
+     * @param y local y, 0 to HEIGHT inclusive
+     * @param z local z, 0 to WIDTH inclusive
+     * @param face face index, see Block.faceVertices
+     * @return
+     */
+    public static int packVertex(int x, int y, int z, int face) {
+        return (x << X_SHIFT) | (y << Y_SHIFT) | (z << Z_SHIFT) | (face << FACE_SHIFT);
+    }
+
+    /**
+     * Pack texture coordinates, counted in tiles, and the sprite map tile
+     * @param u texture u, up to 63
+     * @param v texture v, up to 63
+     * @param tile packed tile, see packTile
+     * @return
+     */
+    public static int packTexture(int u, int v, int tile) {
+        return (u << U_SHIFT) | (v << V_SHIFT) | tile;
+    }
+
+    /**
+     * Pack the position of a tile in the sprite map
+     * @param x tile column
+     * @param y tile row
+     * @return
+     */
+    public static int packTile(int x, int y) {
+        return (x << TILE_X_SHIFT) | (y << TILE_Y_SHIFT);
+    }
+
+    // Unpacking, mirrors the vertex shaders
+    public static int unpackX(int vertex) { return (vertex >>> X_SHIFT) & COORD_MASK; }
+    public static int unpackY(int vertex) { return (vertex >>> Y_SHIFT) & Y_MASK; }
+    public static int unpackZ(int vertex) { return (vertex >>> Z_SHIFT) & COORD_MASK; }
+    public static int unpackFace(int vertex) { return (vertex >>> FACE_SHIFT) & FACE_MASK; }
+    public static int unpackU(int texture) { return (texture >>> U_SHIFT) & COORD_MASK; }
+    public static int unpackV(int texture) { return (texture >>> V_SHIFT) & COORD_MASK; }
+    public static int unpackTileX(int texture) { return (texture >>> TILE_X_SHIFT) & TILE_MASK; }
+    public static int unpackTileY(int texture) { return (texture >>> TILE_Y_SHIFT) & TILE_MASK; }
+
+    /**
+     * Take a direct buffer of at least the given size from the pool
+     * @param bytes
+     * @return
+     */
+    public static ByteBuffer acquire(int bytes) {
+        int shift = Math.max(MIN_POOLED_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(bytes - 1, 1)));
+        ByteBuffer buffer = pool.get(shift).poll();
+        if (buffer == null) buffer = ByteBuffer.allocateDirect(1 << shift).order(ByteOrder.nativeOrder());
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Hand a buffer obtained from acquire back to the pool
+     * @param buffer
+     */
+    public static void release(ByteBuffer buffer) {
+        int shift = Integer.numberOfTrailingZeros(buffer.capacity());
+        if (pool.get(shift).size() < MAX_POOLED_PER_SIZE) pool.get(shift).offer(buffer);
+    }
+
+    /**
+     * Build the mesh of the chunk, caller must hold the chunk lock
+     * @param chunk
+     * @param greedy merge coplanar faces of the same texture
+     * @param select1 storage index of selection 1, -1 if none
+     * @param select2 storage index of selection 2, -1 if none
+     * @return flipped buffer with the interleaved vertices, to be released after uploading
+     */
+    public ByteBuffer build(Chunk chunk, boolean greedy, int select1, int select2) {
+        // Count visible faces first, which bounds the number of vertices
+        faceCount = 0;
+        for (int s = 0; s < Chunk.SECTIONS; s++) {
+            if (chunk.sections[s] == null) continue;
+            faceCount += countFaces(chunk, s);
+        }
+        buffer = acquire(Math.max(faceCount * 6 * VERTEX_SIZE, 1));
+        for (int s = 0; s < Chunk.SECTIONS; s++) {
+            if (chunk.sections[s] == null) continue;
+            if (greedy) addGreedyFaces(chunk, s, select1, select2);
+            else addFaces(chunk, s, select1, select2);
+        }
+        vertexCount = buffer.position() / VERTEX_SIZE;
+        buffer.flip();
+        ByteBuffer result = buffer;
+        buffer = null;
+        return result;
+    }
+
+    /**
+     * Count the visible faces in the section
+     */
+    private int countFaces(Chunk chunk, int s) {
+        BlockStorage section = chunk.sections[s];
+        boolean uniform = section.isUniform();
+        int count = 0;
+        for (int i = 0; i < Chunk.SECTION_SIZE; i++) {
+            int x = Chunk.localX(i); int y = Chunk.localY(i) + s * Chunk.SECTION_HEIGHT; int z = Chunk.localZ(i);
+            // The inside of a uniformly filled section is fully covered, jump to the far side
+            if (uniform && x == 1 && z > 0 && z < Chunk.WIDTH - 1 && Chunk.localY(i) > 0 && Chunk.localY(i) < Chunk.SECTION_HEIGHT - 1) {
+                i += Chunk.WIDTH - 3;
+                continue;
+            }
+            if (section.get(i) == BlockStorage.AIR) continue;
+            for (int f = 0; f < 6; f++) {
+                if (chunk.faceKey(f, x, y, z, -1, -1) != 0) count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Add a quad for every visible face in the section
+     */
+    private void addFaces(Chunk chunk, int s, int select1, int select2) {
+        boolean uniform = chunk.sections[s].isUniform();
+        for (int i = 0; i < Chunk.SECTION_SIZE; i++) {
+            int x = Chunk.localX(i); int y = Chunk.localY(i) + s * Chunk.SECTION_HEIGHT; int z = Chunk.localZ(i);
+            // The inside of a uniformly filled section is fully covered, jump to the far side
+            if (uniform && x == 1 && z > 0 && z < Chunk.WIDTH - 1 && Chunk.localY(i) > 0 && Chunk.localY(i) < Chunk.SECTION_HEIGHT - 1) {
+                i += Chunk.WIDTH - 3;
+                continue;
+            }
+            for (int f = 0; f < 6; f++) {
+                int key = chunk.faceKey(f, x, y, z, select1, select2);
+                if (key != 0) addQuad(f, x, y, z, 1, 1, 1, key);
+            }
+        }
+    }
+
+    /**
+     * Add the visible faces in the section, merging coplanar neighbouring faces
+     * with the same texture into as few rectangular quads as possible
+     */
+    private void addGreedyFaces(Chunk chunk, int s, int select1, int select2) {
+        for (int f = 0; f < 6; f++) {
+            // Axis along the face normal, and the two axes spanning the face
+            int d = NORMAL_AXIS[f]; int u = (d + 1) % 3; int v = (d + 2) % 3;
+            for (int slice = 0; slice < dims[d]; slice++) {
+                // Mark every visible face in this slice with its texture key
+                for (int j = 0; j < dims[v]; j++) {
+                    for (int i = 0; i < dims[u]; i++) {
+                        p[d] = slice; p[u] = i; p[v] = j;
+                        mask[i + j * dims[u]] = chunk.faceKey(f, p[0], p[1] + s * Chunk.SECTION_HEIGHT, p[2], select1, select2);
+                    }
+                }
+                // Grow rectangles of equal keys, first along u then along v
+                for (int j = 0; j < dims[v]; j++) {
+                    for (int i = 0; i < dims[u]; ) {
+                        int key = mask[i + j * dims[u]];
+                        if (key == 0) {
+                            i++;
+                            continue;
+                        }
+                        int w = 1;
+                        while (i + w < dims[u] && mask[i + w + j * dims[u]] == key) w++;
+                        int h = 1;
+                        grow:
+                        while (j + h < dims[v]) {
+                            for (int k = 0; k < w; k++) {
+                                if (mask[i + k + (j + h) * dims[u]] != key) break grow;
+                            }
+                            h++;
+                        }
+                        // Clear the covered faces
+                        for (int l = 0; l < h; l++) {
+                            for (int k = 0; k < w; k++) mask[i + k + (j + l) * dims[u]] = 0;
+                        }
+                        p[d] = slice; p[u] = i; p[v] = j;
+                        ext[d] = 1; ext[u] = w; ext[v] = h;
+                        addQuad(f, p[0], p[1] + s * Chunk.SECTION_HEIGHT, p[2], ext[0], ext[1], ext[2], key);
+                        i += w;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a quad for face f, spanning ex x ey x ez blocks from local coords x y z
+     * Texture coordinates count in tiles, so the texture repeats once per block
+     */
+    private void addQuad(int f, int x, int y, int z, int ex, int ey, int ez, int key) {
+        int tile = TILES[key];
+        ext[0] = ex; ext[1] = ey; ext[2] = ez;
+        for (int v = 0; v < 6; v++) {
+            buffer.putInt(packVertex(
+                    (int) Block.faceVertices[f][v * 3] * ex + x,
+                    (int) Block.faceVertices[f][v * 3 + 1] * ey + y,
+                    (int) Block.faceVertices[f][v * 3 + 2] * ez + z, f));
+            buffer.putInt(packTexture(FACE_TEX_U[v] * ext[TEX_U_AXIS[f]], FACE_TEX_V[v] * ext[TEX_V_AXIS[f]], tile));
+        }
+    }
+
+}
@@ -274,6 +274,99 @@ public class OpenSimplex2 {
         return value;
     }
 
+    /*
+     * Batch Evaluators
+     */
+
+    // Per thread scratch rows of lattice coordinates for the batch evaluators
+    private static final ThreadLocal<double[]> BATCH_SCRATCH = ThreadLocal.withInitial(() -> new double[0]);
+
+    /**
+     * Fill a grid with 2D Simplex noise, standard lattice orientation, sampled at integer coordinates.
+     * Sample (x, z) is noise2(seed, (x0 + x) / frequency, (z0 + z) / frequency), stored at out[z * width + x].
+     * Every row is first transformed to lattice space in plain arithmetic loops the JIT can vectorize,
+     * then evaluated front to back, which gives the same values as calling noise2 per sample.
+     */
+    public static void noise2Grid(long seed, float[] out, int x0, int z0, int width, int depth, float frequency) {
+        double[] scratch = batchScratch(3 * width);
+
+        // Scaled X coordinates are the same for every row.
+        for (int x = 0; x < width; x++) {
+            scratch[x] = (x0 + x) / frequency;
+        }
+
+        for (int z = 0, offset = 0; z < depth; z++, offset += width) {
+            double zz = (z0 + z) / frequency;
+
+            // Get points for A2* lattice.
+            for (int x = 0; x < width; x++) {
+                double s = SKEW_2D * (scratch[x] + zz);
+                scratch[width + x] = scratch[x] + s;
+                scratch[2 * width + x] = zz + s;
+            }
+
+            for (int x = 0; x < width; x++) {
+                out[offset + x] = noise2_UnskewedBase(seed, scratch[width + x], scratch[2 * width + x]);
+            }
+        }
+    }
+
+    /**
+     * Fill a box with 3D OpenSimplex2 noise, with better visual isotropy in (X, Z) and Y vertical,
+     * sampled at integer coordinates.
+     * Sample (x, y, z) is noise3_ImproveXZ(seed, (x0 + x) / frequency, (y0 + y) / frequency, (z0 + z) / frequency),
+     * stored at out[(y * depth + z) * width + x], the voxel order of chunk sections.
+     * Rows are rotated in plain arithmetic loops the JIT can vectorize, then evaluated front to back,
+     * which gives the same values as calling noise3_ImproveXZ per sample.
+     */
+    public static void noise3Box(long seed, float[] out, int x0, int y0, int z0, int width, int height, int depth, float frequency) {
+        noise3Box(seed, out, x0, y0, z0, width, height, depth, frequency, frequency);
+    }
+
+    /**
+     * Fill a box with 3D OpenSimplex2 noise like noise3Box, with Y coordinates divided by
+     * verticalFrequency instead, for boxes sampled at different horizontal and vertical spacing.
+     */
+    public static void noise3Box(long seed, float[] out, int x0, int y0, int z0, int width, int height, int depth,
+                                 float frequency, float verticalFrequency) {
+        double[] scratch = batchScratch(4 * width);
+
+        // Scaled X coordinates are the same for every row.
+        for (int x = 0; x < width; x++) {
+            scratch[x] = (x0 + x) / frequency;
+        }
+
+        int offset = 0;
+        for (int y = 0; y < height; y++) {
+            double yy = ((y0 + y) / verticalFrequency) * ROOT3OVER3;
+            for (int z = 0; z < depth; z++, offset += width) {
+                double zz = (z0 + z) / frequency;
+
+                // Re-orient the cubic lattices without skewing, see noise3_ImproveXZ.
+                for (int x = 0; x < width; x++) {
+                    double xz = scratch[x] + zz;
+                    double s2 = xz * ROTATE_3D_ORTHOGONALIZER;
+                    scratch[width + x] = scratch[x] + s2 + yy;
+                    scratch[2 * width + x] = xz * -ROOT3OVER3 + yy;
+                    scratch[3 * width + x] = zz + s2 + yy;
+                }
+
+                for (int x = 0; x < width; x++) {
+                    out[offset + x] = noise3_UnrotatedBase(seed, scratch[width + x], scratch[2 * width + x], scratch[3 * width + x]);
+                }
+            }
+        }
+    }
+
+    private static double[] batchScratch(int length) {
+        double[] scratch = BATCH_SCRATCH.get();
+        if (scratch.length < length) {
+            scratch = new double[length];
+            BATCH_SCRATCH.set(scratch);
+        }
+        return scratch;
+    }
+
     /**
      * 4D OpenSimplex2 noise, with XYZ oriented like noise3_ImproveXY
      * and W for an extra degree of freedom. W repeats eventually.
@@ -0,0 +1,102 @@
+import org.joml.Vector3f;
+import org.joml.Vector3i;
+
+/**
+ * Voxel raycast, walks the block grid along a ray visiting every block it passes exactly once
+ * (Amanatides & Woo, "A Fast Voxel Traversal Algorithm for Ray Tracing")
+ * An instance holds the result of its last cast, so it can be reused without allocating
+ */
+public class Raycast {
+
+    // Hit face per axis and step sign, face indices as in Block.faceVertices
+    private static final int[] ENTRY_FACE_POSITIVE = new int[]{3, 5, 0}; // entered through -x, bottom, -z
+    private static final int[] ENTRY_FACE_NEGATIVE = new int[]{1, 4, 2}; // entered through +x, top, +z
+
+    // Did the last cast hit a block
+    public boolean hit;
+    // World space coords of the hit block
+    public final Vector3i block = new Vector3i();
+    // Face of the hit block the ray entered through, -1 if the ray started inside the block
+    public int face;
+    // Empty block the ray was in right before the hit, where a new block would be placed
+    public final Vector3i previous = new Vector3i();
+    // Did the ray pass through an empty block before the hit
+    public boolean hasPrevious;
+    // Distance along the ray to the hit
+    public float distance;
+
+    /**
+     * Cast a ray through the blocks of a world, or any other voxel source
+     * @param voxels
+     * @param origin world space start of the ray
+     * @param direction ray direction, does not need to be normalized
+     * @param range maximum distance
+     * @return did the ray hit a block within range
+     */
+    public boolean cast(VoxelSource voxels, Vector3f origin, Vector3f direction, float range) {
+        hit = false;
+        hasPrevious = false;
+        face = -1;
+        float length = direction.length();
+        if (length == 0) return false;
+        float dx = direction.x / length, dy = direction.y / length, dz = direction.z / length;
+        // Current block
+        int x = (int) Math.floor(origin.x), y = (int) Math.floor(origin.y), z = (int) Math.floor(origin.z);
+        // Direction to step in per axis
+        int stepX = (dx > 0) ? 1 : (dx < 0) ? -1 : 0;
+        int stepY = (dy > 0) ? 1 : (dy < 0) ? -1 : 0;
+        int stepZ = (dz > 0) ? 1 : (dz < 0) ? -1 : 0;
+        // Ray distance needed to cross one block per axis
+        float deltaX = (stepX == 0) ? Float.MAX_VALUE : Math.abs(1f / dx);
+        float deltaY = (stepY == 0) ? Float.MAX_VALUE : Math.abs(1f / dy);
+        float deltaZ = (stepZ == 0) ? Float.MAX_VALUE : Math.abs(1f / dz);
+        // Ray distance to the first block boundary per axis
+        float maxX = (stepX == 0) ? Float.MAX_VALUE : ((stepX > 0) ? (x + 1 - origin.x) : (origin.x - x)) * deltaX;
+        float maxY = (stepY == 0) ? Float.MAX_VALUE : ((stepY > 0) ? (y + 1 - origin.y) : (origin.y - y)) * deltaY;
+        float maxZ = (stepZ == 0) ? Float.MAX_VALUE : ((stepZ > 0) ? (z + 1 - origin.z) : (origin.z - z)) * deltaZ;
+        float t = 0;
+        while (t <= range) {
+            // Above or below the world nothing can be hit, and a ray moving further away never comes back
+            if ((y < 0 && stepY <= 0) || (y >= Chunk.HEIGHT && stepY >= 0)) return false;
+            if (voxels.getBlockTypeAt(x, y, z) != BlockStorage.AIR) {
+                hit = true;
+                block.set(x, y, z);
+                distance = t;
+                return true;
+            }
+            previous.set(x, y, z);
+            hasPrevious = true;
+            // Step to the neighbouring block whose boundary is closest
+            if (maxX < maxY && maxX < maxZ) {
+                x += stepX;
+                t = maxX;
+                maxX += deltaX;
+                face = (stepX > 0) ? ENTRY_FACE_POSITIVE[0] : ENTRY_FACE_NEGATIVE[0];
+            } else if (maxY < maxZ) {
+                y += stepY;
+                t = maxY;
+                maxY += deltaY;
+                face = (stepY > 0) ? ENTRY_FACE_POSITIVE[1] : ENTRY_FACE_NEGATIVE[1];
+            } else {
+                z += stepZ;
+                t = maxZ;
+                maxZ += deltaZ;
+                face = (stepZ > 0) ? ENTRY_FACE_POSITIVE[2] : ENTRY_FACE_NEGATIVE[2];
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Handle to the block hit by the last cast
+     * @param world
+     * @return block handle, null if nothing was hit
+     */
+    public Block getBlock(World world) {
+        if (!hit) return null;
+        Chunk chunk = world.getLoadedChunk(block.x, block.z);
+        if (chunk == null) return null;
+        return chunk.getBlock(block.x - chunk.origin.x, block.y, block.z - chunk.origin.z);
+    }
+
+}
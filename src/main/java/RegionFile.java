@@ -0,0 +1,243 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * Single file holding the payloads of a square of REGION_WIDTH x REGION_WIDTH chunks
+ * The file starts with a header table of (sector offset, byte length) per chunk,
+ * followed by the payloads, each occupying a run of whole sectors
+ * A durable region survives a crash at any point with either the old or the new payloads of the last flush:
+ * payloads always go to fresh sectors, the header only points at them once they are forced to the device,
+ * and the sectors of replaced payloads are only reused once the header no longer points at them
+ * Thread safe, all access is synchronized on the region
+ */
+public class RegionFile {
+
+    // Chunks per region along x and z
+    public static final int REGION_WIDTH = 32;
+    public static final int CHUNKS = REGION_WIDTH * REGION_WIDTH;
+    // Unit of allocation in the file
+    public static final int SECTOR_SIZE = 4096;
+    // Header entry per chunk: int sector offset (0 if absent), int byte length
+    private static final int ENTRY_SIZE = 2 * Integer.BYTES;
+    private static final int HEADER_SECTORS = (CHUNKS * ENTRY_SIZE + SECTOR_SIZE - 1) / SECTOR_SIZE;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final boolean durable;
+    private final int[] offsets = new int[CHUNKS];
+    private final int[] lengths = new int[CHUNKS];
+    // Sectors in use by the header or a payload
+    private final BitSet used = new BitSet();
+    // Durable only: header entries changed since the last flush, and sectors of payloads they replaced
+    private final BitSet dirty = new BitSet();
+    private final BitSet replaced = new BitSet();
+    private final ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+    // Read only mapping of the file, remapped when a payload lies beyond it
+    private MappedByteBuffer mapped;
+
+    /**
+     * Open the region file at path, creating it if it does not exist
+     * @param path
+     * @throws IOException
+     */
+    public RegionFile(Path path) throws IOException {
+        this(path, false);
+    }
+
+    /**
+     * Open the region file at path, creating it if it does not exist
+     * @param path
+     * @param durable keep the file consistent on the device across crashes, at the cost of
+     *                never rewriting payloads in place and deferring header writes to flush()
+     * @throws IOException
+     */
+    public RegionFile(Path path, boolean durable) throws IOException {
+        this.path = path;
+        this.durable = durable;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        used.set(0, HEADER_SECTORS);
+        if (channel.size() < (long) HEADER_SECTORS * SECTOR_SIZE) {
+            // Fresh file, write an empty header
+            channel.write(ByteBuffer.allocate(HEADER_SECTORS * SECTOR_SIZE), 0);
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(CHUNKS * ENTRY_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) break;
+        }
+        header.flip();
+        for (int i = 0; i < CHUNKS; i++) {
+            offsets[i] = header.getInt();
+            lengths[i] = header.getInt();
+            if (offsets[i] != 0) used.set(offsets[i], offsets[i] + sectors(lengths[i]));
+        }
+    }
+
+    /**
+     * Index of the chunk in its region
+     * @param chunkX chunk coords, origin / Chunk.WIDTH
+     * @param chunkZ
+     * @return
+     */
+    public static int index(int chunkX, int chunkZ) {
+        return Math.floorMod(chunkX, REGION_WIDTH) + Math.floorMod(chunkZ, REGION_WIDTH) * REGION_WIDTH;
+    }
+
+    private static int sectors(int length) {
+        return Math.max(1, (length + SECTOR_SIZE - 1) / SECTOR_SIZE);
+    }
+
+    public synchronized boolean contains(int index) {
+        return offsets[index] != 0;
+    }
+
+    /**
+     * Read the payload of a chunk
+     * @param index see index()
+     * @return payload, null if the chunk is not in this region
+     * @throws IOException
+     */
+    public synchronized byte[] read(int index) throws IOException {
+        if (offsets[index] == 0) return null;
+        ByteBuffer data = ByteBuffer.allocate(lengths[index]);
+        long position = (long) offsets[index] * SECTOR_SIZE;
+        while (data.hasRemaining()) {
+            int read = channel.read(data, position + data.position());
+            if (read < 0) throw new IOException("Truncated chunk payload in " + path);
+        }
+        return data.array();
+    }
+
+    /**
+     * View of the payload of a chunk in the mapped file, without copying it
+     * The view stays valid until the payload is written or deleted
+     * @param index see index()
+     * @return read only buffer from the start to the end of the payload, null if the chunk is not in this region
+     * @throws IOException
+     */
+    public synchronized ByteBuffer map(int index) throws IOException {
+        if (offsets[index] == 0) return null;
+        long position = (long) offsets[index] * SECTOR_SIZE;
+        long end = position + lengths[index];
+        if (mapped == null || end > mapped.capacity()) {
+            if (end > channel.size()) throw new IOException("Truncated chunk payload in " + path);
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer view = mapped.duplicate();
+        view.limit((int) end).position((int) position);
+        return view.slice();
+    }
+
+    /**
+     * Store the payload of a chunk, replacing any previous one
+     * When durable the header on the device keeps pointing at the previous payload until flush()
+     * @param index see index()
+     * @param data
+     * @throws IOException
+     */
+    public synchronized void write(int index, byte[] data) throws IOException {
+        int needed = sectors(data.length);
+        // Rewrite in place if the payload still fits, otherwise find a new run
+        int offset = offsets[index];
+        boolean inPlace = !durable && offset != 0 && sectors(lengths[index]) >= needed;
+        if (!inPlace) offset = allocate(needed);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long position = (long) offset * SECTOR_SIZE;
+        try {
+            while (buffer.hasRemaining()) channel.write(buffer, position + buffer.position());
+        } catch (IOException e) {
+            if (!inPlace) used.clear(offset, offset + needed);
+            throw e;
+        }
+        if (inPlace) used.clear(offset + needed, offset + sectors(lengths[index]));
+        else release(index);
+        setEntry(index, offset, data.length);
+    }
+
+    /**
+     * Remove the payload of a chunk, its sectors can be reused, when durable after the next flush()
+     * @param index see index()
+     * @throws IOException
+     */
+    public synchronized void delete(int index) throws IOException {
+        if (offsets[index] == 0) return;
+        release(index);
+        setEntry(index, 0, 0);
+    }
+
+    /**
+     * Does this region hold no chunks at all
+     * @return
+     */
+    public synchronized boolean isEmpty() {
+        return used.nextSetBit(HEADER_SECTORS) < 0;
+    }
+
+    /**
+     * Force written payloads and header entries to the storage device
+     * When durable the payloads are forced before the header entries pointing at them are written
+     * @throws IOException
+     */
+    public synchronized void flush() throws IOException {
+        channel.force(false);
+        if (dirty.isEmpty()) return;
+        for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) writeEntry(i);
+        channel.force(false);
+        dirty.clear();
+        // Nothing on the device points at the replaced payloads anymore
+        used.andNot(replaced);
+        replaced.clear();
+    }
+
+    public synchronized void close() throws IOException {
+        mapped = null;
+        channel.close();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Free the sectors of the payload of a chunk, when durable only once the header on the device is updated
+     */
+    private void release(int index) {
+        if (offsets[index] == 0) return;
+        int end = offsets[index] + sectors(lengths[index]);
+        if (durable) replaced.set(offsets[index], end);
+        else used.clear(offsets[index], end);
+    }
+
+    /**
+     * First fit run of free sectors
+     */
+    private int allocate(int count) {
+        int start = used.nextClearBit(HEADER_SECTORS);
+        while (true) {
+            int end = used.nextSetBit(start);
+            if (end < 0 || end - start >= count) break;
+            start = used.nextClearBit(end);
+        }
+        used.set(start, start + count);
+        return start;
+    }
+
+    private void setEntry(int index, int offset, int length) throws IOException {
+        offsets[index] = offset;
+        lengths[index] = length;
+        if (durable) dirty.set(index);
+        else writeEntry(index);
+    }
+
+    private void writeEntry(int index) throws IOException {
+        entry.clear();
+        entry.putInt(offsets[index]).putInt(lengths[index]).flip();
+        while (entry.hasRemaining()) channel.write(entry, (long) index * ENTRY_SIZE + entry.position());
+    }
+
+}
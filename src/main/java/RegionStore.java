@@ -0,0 +1,218 @@
+import org.joml.Vector3i;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Chunk payload storage in region files, one file per REGION_WIDTH x REGION_WIDTH chunks
+ * Region files are opened on first use and kept open
+ */
+public class RegionStore {
+
+    private final Path directory;
+    // Whether region files are opened durable, see RegionFile
+    private final boolean durable;
+    // Open region files by packed region key
+    private final LongHashMap<RegionFile> regions = new LongHashMap<>();
+    private final Lock regionsLock = new ReentrantLock(true);
+
+    /**
+     * @param directory directory holding the region files
+     */
+    public RegionStore(Path directory) {
+        this(directory, false);
+    }
+
+    /**
+     * @param directory directory holding the region files
+     * @param durable keep the region files consistent across crashes, writes only reach the device on flush()
+     */
+    public RegionStore(Path directory, boolean durable) {
+        this.directory = directory;
+        this.durable = durable;
+    }
+
+    /**
+     * Store in a fresh temporary directory that is removed when the application exits
+     * @return
+     */
+    public static RegionStore temporary() {
+        try {
+            Path directory = Files.createTempDirectory("bwe-regions");
+            directory.toFile().deleteOnExit();
+            RegionStore store = new RegionStore(directory);
+            Runtime.getRuntime().addShutdownHook(new Thread(store::clear));
+            return store;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Store the payload of the chunk with the given key
+     * @param key chunk key, see Chunk.key()
+     * @param data
+     * @throws IOException
+     */
+    public void write(long key, byte[] data) throws IOException {
+        region(key, true).write(index(key), data);
+    }
+
+    /**
+     * Read the payload of the chunk with the given key
+     * @param key chunk key, see Chunk.key()
+     * @return payload, null if it is not stored
+     * @throws IOException
+     */
+    public byte[] read(long key) throws IOException {
+        RegionFile region = region(key, false);
+        return (region == null) ? null : region.read(index(key));
+    }
+
+    /**
+     * View of the payload of the chunk with the given key in its mapped region file
+     * @param key chunk key, see Chunk.key()
+     * @return payload, null if it is not stored
+     * @throws IOException
+     */
+    public ByteBuffer map(long key) throws IOException {
+        RegionFile region = region(key, false);
+        return (region == null) ? null : region.map(index(key));
+    }
+
+    /**
+     * Remove the payload of the chunk with the given key
+     * @param key chunk key, see Chunk.key()
+     * @throws IOException
+     */
+    public void delete(long key) throws IOException {
+        RegionFile region = region(key, false);
+        if (region != null) region.delete(index(key));
+    }
+
+    /**
+     * Force all open region files to the storage device
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        for (RegionFile region : open()) region.flush();
+    }
+
+    /**
+     * Close all region files, they are reopened on next use
+     */
+    public void close() {
+        for (RegionFile region : forget()) {
+            try {
+                region.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Close and delete all region files
+     */
+    public void clear() {
+        close();
+        File[] files = directory.toFile().listFiles((dir, name) -> name.endsWith(".region"));
+        if (files == null) return;
+        for (File file : files) file.delete();
+    }
+
+    /**
+     * Origins of all chunks stored in the directory
+     * @return
+     * @throws IOException
+     */
+    public List<Vector3i> origins() throws IOException {
+        List<Vector3i> origins = new ArrayList<>();
+        File[] files = directory.toFile().listFiles((dir, name) -> name.endsWith(".region"));
+        if (files == null) return origins;
+        for (File file : files) {
+            // r.<x>.<z>.region
+            String[] parts = file.getName().split("\\.");
+            int regionX = Integer.parseInt(parts[1]);
+            int regionZ = Integer.parseInt(parts[2]);
+            for (int x = 0; x < RegionFile.REGION_WIDTH; x++) {
+                for (int z = 0; z < RegionFile.REGION_WIDTH; z++) {
+                    int chunkX = regionX * RegionFile.REGION_WIDTH + x;
+                    int chunkZ = regionZ * RegionFile.REGION_WIDTH + z;
+                    long key = ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+                    if (region(key, false).contains(index(key))) {
+                        origins.add(new Vector3i(chunkX * Chunk.WIDTH, 0, chunkZ * Chunk.WIDTH));
+                    }
+                }
+            }
+        }
+        return origins;
+    }
+
+    private List<RegionFile> open() {
+        regionsLock.lock();
+        List<RegionFile> open = new ArrayList<>();
+        for (RegionFile region : regions) open.add(region);
+        regionsLock.unlock();
+        return open;
+    }
+
+    private List<RegionFile> forget() {
+        regionsLock.lock();
+        List<RegionFile> open = open();
+        regions.clear();
+        regionsLock.unlock();
+        return open;
+    }
+
+    /**
+     * Number of open region files
+     * @return
+     */
+    public int regionCount() {
+        regionsLock.lock();
+        int count = regions.size();
+        regionsLock.unlock();
+        return count;
+    }
+
+    private static int index(long key) {
+        return RegionFile.index((int) (key >> 32), (int) key);
+    }
+
+    /**
+     * Region file holding the chunk with the given key
+     * @param key chunk key
+     * @param create open or create the file if it is not open yet
+     * @return region, null if not open and create is false
+     * @throws IOException
+     */
+    private RegionFile region(long key, boolean create) throws IOException {
+        int regionX = Math.floorDiv((int) (key >> 32), RegionFile.REGION_WIDTH);
+        int regionZ = Math.floorDiv((int) key, RegionFile.REGION_WIDTH);
+        long regionKey = ((long) regionX << 32) | (regionZ & 0xFFFFFFFFL);
+        regionsLock.lock();
+        try {
+            RegionFile region = regions.get(regionKey);
+            if (region == null) {
+                File file = directory.resolve("r." + regionX + "." + regionZ + ".region").toFile();
+                if (!create && !file.exists()) return null;
+                Files.createDirectories(directory);
+                region = new RegionFile(file.toPath(), durable);
+                regions.put(regionKey, region);
+            }
+            return region;
+        } finally {
+            regionsLock.unlock();
+        }
+    }
+
+}
@@ -19,10 +19,14 @@ public class Renderer {
     public static Shader depthShader = new DepthShader();
     public static Shader skyboxShader = new SkyboxShader();
 
-    public static float RENDER_DISTANCE = 200f;
+    // Render distance at startup, a constant so using it does not load the shaders
+    public static final float DEFAULT_RENDER_DISTANCE = 200f;
+    public static float RENDER_DISTANCE = DEFAULT_RENDER_DISTANCE;
     public static float NEW_RENDER_DISTANCE = RENDER_DISTANCE;
     public static int numberRendered = 0;
     public static int verticesRendered = 0;
+    // Vertices that would have been rendered without greedy meshing
+    public static int naiveVerticesRendered = 0;
     public static int blocksRendered = 0;
     public static float LIGHT_RENDER_DISTANCE = 200f;
     public static int lightsRendered = 0;
@@ -65,9 +69,8 @@ public class Renderer {
             shadowTransformationViewMatrix.mul(c.getTransformationMatrix());
             depthShader.setUniform("shadowTransformationViewMatrix", shadowTransformationViewMatrix);
             GL30.glBindVertexArray(c.mesh);
-            GL20.glEnableVertexAttribArray(0); // Vertices
-            GL20.glEnableVertexAttribArray(1); // Texture coords
-            GL20.glEnableVertexAttribArray(2); // Normals
+            GL20.glEnableVertexAttribArray(0); // Packed vertices
+            GL20.glEnableVertexAttribArray(1); // Packed texture coords
             glDrawArrays(GL_TRIANGLES, 0, c.vertexCount);
         }
 
@@ -135,6 +138,8 @@ public class Renderer {
         shader.setUniform("renderDistance", RENDER_DISTANCE);
         // Set sky color
         shader.setUniform("skyColor", world.skyColor);
+        // Set size of a texture tile in the sprite map
+        shader.setUniform("tileSize", (float) Block.increment / (float) Block.size);
         // Set time multiplier
         shader.setUniform("fullShadow", world.sun.getTimeMultiplier(world.time));
 
@@ -159,6 +164,7 @@ public class Renderer {
         // Render each chunk's mesh
         numberRendered = 0;
         verticesRendered = 0;
+        naiveVerticesRendered = 0;
         blocksRendered = 0;
         glActiveTexture(GL_TEXTURE1);
         glBindTexture(GL_TEXTURE_2D, world.sun.getShadowMap().getDepthMapTexture().getId());
@@ -169,16 +175,16 @@ public class Renderer {
             // Otherwise we render the chunk
             numberRendered++;
             verticesRendered+=c.vertexCount;
-            blocksRendered+=c.blockList.size();
+            naiveVerticesRendered+=c.naiveVertexCount;
+            blocksRendered+=c.count();
             shader.setUniform("transformationMatrix", c.getTransformationMatrix());
             // Set depth/shadow matrix
             Matrix4f shadowTransformationViewMatrix = new Matrix4f(world.sun.getTransformation());
             shadowTransformationViewMatrix.mul(c.getTransformationMatrix());
             shader.setUniform("shadowTransformationViewMatrix", shadowTransformationViewMatrix);
             GL30.glBindVertexArray(c.mesh);
-            GL20.glEnableVertexAttribArray(0); // Vertices
-            GL20.glEnableVertexAttribArray(1); // Texture coords
-            GL20.glEnableVertexAttribArray(2); // Normals
+            GL20.glEnableVertexAttribArray(0); // Packed vertices
+            GL20.glEnableVertexAttribArray(1); // Packed texture coords
             glDrawArrays(GL_TRIANGLES, 0, c.vertexCount);
         }
 
@@ -196,12 +202,15 @@ public class Renderer {
         if (hDistance > RENDER_DISTANCE) return false;
         if (hDistance < Chunk.WIDTH) return true;
         // Empty chunk should not render
-        if (chunk.blockList.isEmpty()) return false;
+        if (chunk.isEmpty()) return false;
         // Frustum culling
         Matrix4f cameraMatrix = camera.getProjection().mul(camera.getTransformation(), new Matrix4f());
+        // Only sample the height range that holds non empty sections
+        int minY = chunk.minY();
+        int maxY = chunk.maxY();
         for (int x = 0; x <= Chunk.WIDTH; x += Chunk.WIDTH / 4) {
             for (int z = 0; z <= Chunk.WIDTH; z += Chunk.WIDTH / 4) {
-                for (int y = 0; y <= Chunk.HEIGHT; y += Chunk.HEIGHT / 8) {
+                for (int y = minY; y <= maxY; y += Chunk.SECTION_HEIGHT) {
                     Vector4f pos = new Vector4f(
                             chunk.origin.x + x,
                             chunk.origin.y + y,
@@ -0,0 +1,16 @@
+/**
+ * Anything blocks can be read from by world space block coords
+ * Lets raycasts and collision run against a world as well as against plain test data
+ */
+public interface VoxelSource {
+
+    /**
+     * Get the type id of the block at world space block coords
+     * @param x
+     * @param y
+     * @param z
+     * @return block type id, AIR if empty
+     */
+    byte getBlockTypeAt(int x, int y, int z);
+
+}
@@ -0,0 +1,207 @@
+import org.joml.Vector3f;
+import org.joml.Vector3i;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared worker pools for the chunk pipeline
+ * Cpu bound work (generation, meshing) runs on a pool sized to the core count,
+ * disk work (archive put / fetch) on a separate small pool, of virtual threads if the jdk has them
+ * Queued tasks run closest to the camera first, preferring chunks in view
+ */
+public class Workers {
+
+    // Number of cpu workers, leave one core for the main thread
+    public static final int COMPUTE_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    // Number of io workers on platform threads, and on virtual threads which do not hold a core while blocked
+    public static final int IO_THREADS = 4;
+    public static final int VIRTUAL_IO_THREADS = 16;
+
+    // Run io tasks on virtual threads when available, -DvirtualThreads=false to disable
+    public static final boolean virtualThreads = Boolean.parseBoolean(System.getProperty("virtualThreads", "true"));
+
+    private static final PriorityBlockingQueue<Runnable> computeQueue = new PriorityBlockingQueue<>();
+    private static final PriorityBlockingQueue<Runnable> ioQueue = new PriorityBlockingQueue<>();
+    private static final ExecutorService compute = newPool("chunk-worker", COMPUTE_THREADS, computeQueue);
+    private static final ExecutorService io = newIoExecutor();
+
+    // Metrics for the HUD
+    private static final AtomicInteger queued = new AtomicInteger();
+    private static final AtomicInteger active = new AtomicInteger();
+    private static boolean ioVirtual;
+
+    // Point and direction tasks are prioritized around
+    private static final Vector3f focus = new Vector3f();
+    private static final Vector3f focusDirection = new Vector3f(0, 0, -1);
+    private static final Object focusLock = new Object();
+
+    /**
+     * Run cpu bound work that is not tied to a chunk position, before any positioned work
+     * @param task
+     * @return
+     */
+    public static ChunkTask compute(Runnable task) {
+        return compute(task, null);
+    }
+
+    /**
+     * Run cpu bound work, such as generating or meshing a chunk
+     * @param task
+     * @param origin origin of the chunk the task works on, determines its priority
+     * @return
+     */
+    public static ChunkTask compute(Runnable task, Vector3i origin) {
+        return schedule(compute, task, origin);
+    }
+
+    /**
+     * Run disk bound work that is not tied to a chunk position, before any positioned work
+     * @param task
+     * @return
+     */
+    public static ChunkTask io(Runnable task) {
+        return io(task, null);
+    }
+
+    /**
+     * Run disk bound work, such as archiving a chunk
+     * @param task
+     * @param origin origin of the chunk the task works on, determines its priority
+     * @return
+     */
+    public static ChunkTask io(Runnable task, Vector3i origin) {
+        return schedule(io, task, origin);
+    }
+
+    private static ChunkTask schedule(ExecutorService executor, Runnable task, Vector3i origin) {
+        ChunkTask chunkTask = new ChunkTask(task, origin);
+        if (origin != null) {
+            synchronized (focusLock) {
+                chunkTask.priority = priority(origin);
+            }
+        }
+        queued.incrementAndGet();
+        executor.execute(chunkTask);
+        return chunkTask;
+    }
+
+    /**
+     * Move the point queued tasks are prioritized around, and reorder the queues
+     * @param position camera position
+     * @param direction camera view direction
+     */
+    public static void prioritize(Vector3f position, Vector3f direction) {
+        synchronized (focusLock) {
+            focus.set(position.x, 0, position.z);
+            focusDirection.set(direction.x, 0, direction.z);
+            if (focusDirection.lengthSquared() > 0) focusDirection.normalize();
+            reorder(computeQueue);
+            reorder(ioQueue);
+        }
+    }
+
+    /**
+     * Priority of a chunk, its distance to the focus, stretched for chunks behind the camera
+     */
+    private static float priority(Vector3i origin) {
+        float dx = origin.x + Chunk.WIDTH / 2f - focus.x;
+        float dz = origin.z + Chunk.WIDTH / 2f - focus.z;
+        float distance = (float) Math.sqrt(dx * dx + dz * dz);
+        if (distance < Chunk.WIDTH) return distance;
+        // 1 straight ahead, 2 straight behind
+        float facing = (dx * focusDirection.x + dz * focusDirection.z) / distance;
+        return distance * (1.5f - 0.5f * facing);
+    }
+
+    /**
+     * Priorities in a priority queue can not change in place, so take everything out and put it back
+     */
+    private static void reorder(PriorityBlockingQueue<Runnable> queue) {
+        List<Runnable> tasks = new ArrayList<>(queue.size());
+        queue.drainTo(tasks);
+        for (Runnable task : tasks) {
+            ChunkTask chunkTask = (ChunkTask) task;
+            if (chunkTask.origin != null) chunkTask.priority = priority(chunkTask.origin);
+        }
+        queue.addAll(tasks);
+    }
+
+    /**
+     * Number of tasks waiting for a worker
+     * @return
+     */
+    public static int queueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * Number of tasks currently being executed
+     * @return
+     */
+    public static int activeWorkers() {
+        return active.get();
+    }
+
+    /**
+     * Are io tasks running on virtual threads
+     * @return
+     */
+    public static boolean isIoVirtual() {
+        return ioVirtual;
+    }
+
+    // Bookkeeping, called by the tasks themselves
+    static void started() {
+        queued.decrementAndGet();
+        active.incrementAndGet();
+    }
+
+    static void finished() {
+        active.decrementAndGet();
+    }
+
+    static void cancelled(ChunkTask task) {
+        queued.decrementAndGet();
+        // Do not leave dead tasks in the queues
+        if (!computeQueue.remove(task)) ioQueue.remove(task);
+    }
+
+    private static ExecutorService newPool(String name, int threads, BlockingQueue<Runnable> queue) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            // Never keep the application alive
+            thread.setDaemon(true);
+            return thread;
+        };
+        return newPool(threads, queue, factory);
+    }
+
+    private static ExecutorService newPool(int threads, BlockingQueue<Runnable> queue, ThreadFactory factory) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, queue, factory);
+    }
+
+    /**
+     * Io pool taking tasks from the prioritized io queue, its workers are virtual threads on jdk 21+,
+     * looked up reflectively as we target java 11
+     */
+    private static ExecutorService newIoExecutor() {
+        if (virtualThreads) {
+            try {
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "chunk-io-", 1L);
+                ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+                ioVirtual = true;
+                return newPool(VIRTUAL_IO_THREADS, ioQueue, factory);
+            } catch (ReflectiveOperationException e) {
+                // Not available on this jdk
+            }
+        }
+        return newPool("chunk-io", IO_THREADS, ioQueue);
+    }
+
+}
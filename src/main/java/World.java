@@ -5,6 +5,7 @@ import org.joml.Vector3i;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -13,19 +14,19 @@ import static org.lwjgl.glfw.GLFW.*;
 /**
  * Generic container for anything that a block world might contain
  */
-public class World {
+public class World implements VoxelSource {
 
     // App reference for global access
     App app;
 
     public Camera camera;
     public Sun sun;
-    public HillWorldGenerator worldGenerator;
-    public List<Chunk> chunks;
-    public HashMap<Integer, HashMap<Integer, Chunk>> chunkMap;
+    public WorldGenerator worldGenerator;
+    // Loaded chunks by packed key, see Chunk.key()
+    public LongHashMap<Chunk> chunks;
 
     // Chunks inside this range should be loaded
-    public static float chunkLoadRange = Renderer.RENDER_DISTANCE * 1.30f;
+    public static float chunkLoadRange = Renderer.DEFAULT_RENDER_DISTANCE * 1.30f;
     // Chunks outside this range should be unloaded
     public static float chunkUnloadRange = chunkLoadRange + 128f;
 
@@ -43,49 +44,107 @@ public class World {
 
     public boolean flying = false;
 
-    public World(App app, HillWorldGenerator worldGenerator) {
+    // Merge coplanar faces of the same type into larger quads when meshing
+    public boolean greedyMeshing = true;
+
+    // Chunk of the last block lookup, consecutive lookups mostly hit the same chunk
+    private Chunk lastChunk;
+
+    public World(App app, WorldGenerator worldGenerator) {
         this(app);
         this.worldGenerator = worldGenerator;
     }
 
     public World(App app) {
+        this(app, true);
+    }
+
+    private World(App app, boolean lit) {
         this.app = app;
         skyColor = new Vector3f(peakSkyColor);
-        chunks = new ArrayList<>();
-        chunkMap = new HashMap<>();
+        chunks = new LongHashMap<>();
         camera = new Camera(this);
-        sun = new Sun(this);
+        // The sun needs an OpenGL context
+        if (lit) sun = new Sun(this);
+    }
+
+    /**
+     * World without a sun, for work on chunks outside of the render loop like benchmarks
+     * It can not be rendered
+     * @param worldGenerator
+     * @return
+     */
+    static World headless(WorldGenerator worldGenerator) {
+        World world = new World(null, false);
+        world.worldGenerator = worldGenerator;
+        return world;
     }
 
     public Chunk addChunk(Chunk c) {
-        chunks.add(c);
-        if (!chunkMap.containsKey(c.origin.x)) chunkMap.put(c.origin.x, new HashMap<>());
-        chunkMap.get(c.origin.x).put(c.origin.z, c);
+        chunks.put(c.key(), c);
         return c;
     }
 
     public Chunk removeChunk(Chunk c) {
-        chunks.remove(c);
-        chunkMap.get(c.origin.x).remove(c.origin.z);
-        if (chunkMap.get(c.origin.x).isEmpty()) chunkMap.remove(c.origin.x);
+        chunks.remove(c.key());
+        if (lastChunk == c) lastChunk = null;
         return c;
     }
 
     public Chunk getChunkFromXZ(int x, int z) {
-        if (chunkMap.containsKey(x)) {
-            return chunkMap.get(x).get(z);
-        }
-        return null;
+        return chunks.get(Chunk.key(x, z));
     }
 
-    public Chunk getChunkFromPosition(Vector3f position) {
-        int floorX = (int) Math.floor(position.x / Chunk.WIDTH) * Chunk.WIDTH;
-        int floorZ = (int) Math.floor(position.z / Chunk.WIDTH) * Chunk.WIDTH;
-        Chunk chunk = getChunkFromXZ(floorX, floorZ);
-        if (chunk == null) chunk = new Chunk(this, floorX, 0, floorZ);
+    /**
+     * Get the loaded chunk containing the world space block coords x z
+     * @param x
+     * @param z
+     * @return the chunk, null if it is not loaded
+     */
+    public Chunk getLoadedChunk(int x, int z) {
+        Chunk chunk = lastChunk;
+        if (chunk != null && x - chunk.origin.x >= 0 && x - chunk.origin.x < Chunk.WIDTH
+                && z - chunk.origin.z >= 0 && z - chunk.origin.z < Chunk.WIDTH) {
+            return chunk;
+        }
+        chunk = chunks.get(Chunk.key(Math.floorDiv(x, Chunk.WIDTH) * Chunk.WIDTH, Math.floorDiv(z, Chunk.WIDTH) * Chunk.WIDTH));
+        if (chunk != null) lastChunk = chunk;
         return chunk;
     }
 
+    /**
+     * Get the chunk containing the world space block coords x z for editing, creating it if needed
+     * A missing chunk is only created in worlds without a generator, and never while it is
+     * being loaded or sits in the archive, as it would then hide the real contents
+     * @param x
+     * @param z
+     * @return the chunk, null if it can not be edited right now
+     */
+    public Chunk getChunkForEdit(int x, int z) {
+        Chunk chunk = getLoadedChunk(x, z);
+        if (chunk != null) return chunk;
+        int originX = Math.floorDiv(x, Chunk.WIDTH) * Chunk.WIDTH;
+        int originZ = Math.floorDiv(z, Chunk.WIDTH) * Chunk.WIDTH;
+        long key = Chunk.key(originX, originZ);
+        if (worldGenerator != null || isBeingLoaded(key) || ChunkArchiver.contains(key)) return null;
+        return addChunk(new Chunk(this, originX, 0, originZ));
+    }
+
+    /**
+     * Get the type id of the block at world space block coords, without allocating
+     * @param x
+     * @param y
+     * @param z
+     * @return block type id, AIR if empty, out of bounds or not loaded
+     */
+    @Override
+    public byte getBlockTypeAt(int x, int y, int z) {
+        if (y < 0 || y >= Chunk.HEIGHT) return BlockStorage.AIR;
+        Chunk chunk = getLoadedChunk(x, z);
+        if (chunk == null) return BlockStorage.AIR;
+        return chunk.getBlockId(Chunk.index(x - chunk.origin.x, y, z - chunk.origin.z));
+    }
+
     /**
      * Load and unload chunks as necessary
      * @return
@@ -93,16 +152,23 @@ public class World {
     public int manageChunks() {
         Vector3f position = new Vector3f(camera.position);
         position.y = 0;
+        // Work closest to the camera first, and drop queued work that would be unloaded right away
+        Workers.prioritize(position, camera.getDirection());
+        ChunkArchiver.cancelOutside(position, chunkUnloadRange);
+        if (worldGenerator != null) worldGenerator.cancelOutside(position, chunkUnloadRange);
         // Unload all chunks outside of unload range
         List<Chunk> unloadedChunks = new ArrayList<>();
         for (Chunk chunk : chunks) {
             // If outside unload range
             if (position.distance(chunk.origin.x, chunk.origin.y, chunk.origin.z) > chunkUnloadRange) {
                 chunk.unloadMesh();
-                // If modified we write it to disk, otherwise we can just regenerate it when we need it again
+                // If modified we write it to disk, otherwise keep it cached as long as there is room,
+                // it can be regenerated when it was dropped
                 if (chunk.modified) {
                     ChunkArchiver.archiveChunk(chunk);
                     System.out.println("Archiving modified chunk");
+                } else if (worldGenerator != null && !chunk.fallback) {
+                    worldGenerator.cache(chunk);
                 }
                 unloadedChunks.add(chunk);
             }
@@ -115,13 +181,14 @@ public class World {
                 int floorX = (int) Math.floor(x / Chunk.WIDTH) * Chunk.WIDTH;
                 int floorZ = (int) Math.floor(z / Chunk.WIDTH) * Chunk.WIDTH;
                 if (position.distance(floorX, 0, floorZ) > chunkLoadRange) continue;
+                long key = Chunk.key(floorX, floorZ);
                 // Check if the chunk already exists
-                boolean chunkExists = (getChunkFromXZ(floorX, floorZ) != null);
+                boolean chunkExists = chunks.containsKey(key);
                 // If chunk does not exist, and it is not currently being loaded already
-                if (!chunkExists && !isBeingLoaded(new Vector3i(floorX, 0, floorZ))) {
+                if (!chunkExists && !isBeingLoaded(key) && !ChunkArchiver.isUnreadable(key)) {
                     Chunk chunk = new Chunk(this, floorX, 0, floorZ);
                     // Generate it or load it
-                    if (ChunkArchiver.contains(new Vector3i(floorX, 0, floorZ))) {
+                    if (ChunkArchiver.contains(key)) {
                         ChunkArchiver.unarchiveChunk(this, new Vector3i(floorX, 0, floorZ));
                         System.out.println("Unarchiving modified chunk");
                         loading++;
@@ -137,8 +204,74 @@ public class World {
         return loading;
     }
 
-    public boolean isBeingLoaded(Vector3i key) {
-        return (ChunkArchiver.inProgress.contains(key) || worldGenerator.inProgress.contains(key));
+    /**
+     * Load the chunks around the camera right away, from the archive or the generator,
+     * and dispatch the rest of the load range
+     * Only the spawn area is waited for, so the world can be shown before it is fully loaded
+     */
+    public void loadSpawn() {
+        int centerX = Math.floorDiv((int) Math.floor(camera.position.x), Chunk.WIDTH) * Chunk.WIDTH;
+        int centerZ = Math.floorDiv((int) Math.floor(camera.position.z), Chunk.WIDTH) * Chunk.WIDTH;
+        List<Chunk> loaded = new ArrayList<>();
+        List<ChunkTask> tasks = new ArrayList<>();
+        for (int x = centerX - Chunk.WIDTH; x <= centerX + Chunk.WIDTH; x += Chunk.WIDTH) {
+            for (int z = centerZ - Chunk.WIDTH; z <= centerZ + Chunk.WIDTH; z += Chunk.WIDTH) {
+                if (chunks.containsKey(Chunk.key(x, z))) continue;
+                Vector3i origin = new Vector3i(x, 0, z);
+                tasks.add(Workers.compute(() -> {
+                    Chunk chunk = loadChunkNow(origin);
+                    if (chunk == null) return;
+                    chunk.calculateMesh();
+                    synchronized (loaded) {
+                        loaded.add(chunk);
+                    }
+                }));
+            }
+        }
+        for (ChunkTask task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException | ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+        for (Chunk chunk : loaded) {
+            chunk.loadCalculatedMesh();
+            addChunk(chunk);
+        }
+        manageChunks();
+    }
+
+    /**
+     * Load a chunk on this thread, from the archive, else the generator, else empty
+     * @param origin
+     * @return chunk without mesh, null if it is archived but could not be read and there is no generator
+     */
+    Chunk loadChunkNow(Vector3i origin) {
+        if (ChunkArchiver.contains(Chunk.key(origin))) {
+            Chunk chunk = ChunkArchiver.loadNow(this, origin);
+            if (chunk == null) chunk = fallbackChunk(origin);
+            if (chunk == null) ChunkArchiver.markUnreadable(origin);
+            return chunk;
+        }
+        if (worldGenerator == null) return new Chunk(this, origin.x, origin.y, origin.z);
+        return worldGenerator.generateNow(this, origin);
+    }
+
+    /**
+     * Stand in for an archived chunk that could not be read, its payload stays in the archive
+     * @param origin
+     * @return generated chunk, null if the world has no generator
+     */
+    Chunk fallbackChunk(Vector3i origin) {
+        if (worldGenerator == null) return null;
+        Chunk chunk = worldGenerator.generateNow(this, origin);
+        chunk.fallback = true;
+        return chunk;
+    }
+
+    public boolean isBeingLoaded(long key) {
+        return (ChunkArchiver.inProgress.containsKey(key) || (worldGenerator != null && worldGenerator.inProgress.containsKey(key)));
     }
 
     /**
@@ -159,25 +292,63 @@ public class World {
         }
     }
 
+    /**
+     * Get a handle to the block at the world space position
+     * @param position
+     * @return block handle, null if there is no block
+     */
     public Block getBlockFromPosition(Vector3f position) {
-        Chunk chunk = getChunkFromPosition(position);
-        Vector3i loc = chunk.getLocalPosition(position);
-        if (loc.y >= 0) {
-            return chunk.blocks[loc.x][loc.z][loc.y];
-        }
-        return null;
+        if (position.y < 0 || position.y >= Chunk.HEIGHT) return null;
+        int x = (int) Math.floor(position.x); int z = (int) Math.floor(position.z);
+        Chunk chunk = getLoadedChunk(x, z);
+        if (chunk == null) return null;
+        return chunk.getBlock(x - chunk.origin.x, (int) Math.floor(position.y), z - chunk.origin.z);
+    }
+
+    /**
+     * Get the type of the block at the world space position
+     * @param position
+     * @return block type, null if there is no block
+     */
+    public BlockType getBlockTypeFromPosition(Vector3f position) {
+        byte id = getBlockTypeAt((int) Math.floor(position.x), (int) Math.floor(position.y), (int) Math.floor(position.z));
+        return (id == BlockStorage.AIR) ? null : BlockType.type(id);
     }
 
-    // Add a block to its type list
-    public Block addBlock(Block block, Vector3f position) {
-        Chunk chunk = getChunkFromPosition(position);
-        int x = (int) Math.floor(position.x) % Chunk.WIDTH;
-        int y = (int) Math.floor(position.y) % Chunk.HEIGHT;
-        int z = (int) Math.floor(position.z) % Chunk.WIDTH;
-        if (x < 0) x += Chunk.WIDTH;
-        if (z < 0) z += Chunk.WIDTH;
-        chunk.setBlock(x, y, z, block);
-        return block;
+    /**
+     * Set the block at the world space position to the given type
+     * @param position
+     * @param type
+     * @return the affected chunk, null if the position is out of bounds or can not be edited
+     */
+    public Chunk setBlock(Vector3f position, BlockType type) {
+        if (position.y < 0 || position.y >= Chunk.HEIGHT) return null;
+        int x = (int) Math.floor(position.x); int z = (int) Math.floor(position.z);
+        int y = (int) Math.floor(position.y);
+        Chunk chunk = getChunkForEdit(x, z);
+        if (chunk == null) return null;
+        byte previous = chunk.getBlockId(Chunk.index(x - chunk.origin.x, y, z - chunk.origin.z));
+        chunk.setBlock(x - chunk.origin.x, y, z - chunk.origin.z, type);
+        if (previous != type.id()) EditJournal.record(x, y, z, previous, type.id());
+        return chunk;
+    }
+
+    /**
+     * Remove the block at the world space position
+     * @param position
+     * @return the affected chunk, null if there was no block
+     */
+    public Chunk removeBlock(Vector3f position) {
+        if (position.y < 0 || position.y >= Chunk.HEIGHT) return null;
+        int x = (int) Math.floor(position.x); int z = (int) Math.floor(position.z);
+        // Nothing to remove from a chunk that is not loaded
+        Chunk chunk = getLoadedChunk(x, z);
+        if (chunk == null) return null;
+        int y = (int) Math.floor(position.y);
+        BlockType removed = chunk.removeBlock(x - chunk.origin.x, y, z - chunk.origin.z);
+        if (removed == null) return null;
+        EditJournal.record(x, y, z, removed.id(), BlockStorage.AIR);
+        return chunk;
     }
 
     public void toClipboard(Vector3f p1, Vector3f p2) {
@@ -188,8 +359,8 @@ public class World {
         for (int x = xRange.x; x <= xRange.y; x++) {
             for (int y = yRange.x; y <= yRange.y; y++) {
                 for (int z = zRange.x; z <= zRange.y; z++) {
-                    Block b = getBlockFromPosition(new Vector3f(x, y, z));
-                    if (b != null) clipboard.put(new Vector3i(x - (int) Math.floor(p1.x), y - (int) Math.floor(p1.y), z - (int) Math.floor(p1.z)), b.type);
+                    byte id = getBlockTypeAt(x, y, z);
+                    if (id != BlockStorage.AIR) clipboard.put(new Vector3i(x - (int) Math.floor(p1.x), y - (int) Math.floor(p1.y), z - (int) Math.floor(p1.z)), BlockType.type(id));
                 }
             }
         }
@@ -198,24 +369,22 @@ public class World {
     public void fromClipboard(Vector3f p) {
         if (clipboard == null || clipboard.isEmpty()) return;
         Set<Chunk> affectedChunks = new HashSet<>();
+        Vector3f pos = new Vector3f();
         for (Vector3i key : clipboard.keySet()) {
-            Block b = addBlock(new Block(clipboard.get(key)), p.add(key.x, key.y, key.z, new Vector3f()));
-            affectedChunks.add(b.chunk);
+            Chunk c = setBlock(p.add(key.x, key.y, key.z, pos), clipboard.get(key));
+            if (c != null) affectedChunks.add(c);
         }
         for (Chunk c : affectedChunks) c.regenerateMesh();
     }
 
     public void removeBlocks(Vector3f p1, Vector3f p2) {
         Set<Chunk> affectedChunks = new HashSet<>();
+        Vector3f p = new Vector3f();
         for (float x = Math.min(p1.x, p2.x); x <= Math.max(p1.x, p2.x); x++) {
             for (float y = Math.min(p1.y, p2.y); y <= Math.max(p1.y, p2.y); y++) {
                 for (float z = Math.min(p1.z, p2.z); z <= Math.max(p1.z, p2.z); z++) {
-                    Block block = getBlockFromPosition(new Vector3f(x, y, z));
-                    if (block != null) {
-                        Chunk c = getChunkFromPosition(new Vector3f(x, y, z));
-                        c.removeBlock(block.inChunkX, block.inChunkY, block.inChunkZ);
-                        affectedChunks.add(c);
-                    }
+                    Chunk c = removeBlock(p.set(x, y, z));
+                    if (c != null) affectedChunks.add(c);
                 }
             }
         }
@@ -224,13 +393,13 @@ public class World {
 
     public void replaceBlocks(Vector3f p1, Vector3f p2, BlockType oType, BlockType nType) {
         Set<Chunk> affectedChunks = new HashSet<>();
+        Vector3f p = new Vector3f();
         for (float x = Math.min(p1.x, p2.x); x <= Math.max(p1.x, p2.x); x++) {
             for (float y = Math.min(p1.y, p2.y); y <= Math.max(p1.y, p2.y); y++) {
                 for (float z = Math.min(p1.z, p2.z); z <= Math.max(p1.z, p2.z); z++) {
-                    Block block = getBlockFromPosition(new Vector3f(x, y, z));
-                    if (block != null && block.type == oType) {
-                        block.type = nType;
-                        affectedChunks.add(block.chunk);
+                    if (getBlockTypeFromPosition(p.set(x, y, z)) == oType) {
+                        Chunk c = setBlock(p, nType);
+                        if (c != null) affectedChunks.add(c);
                     }
                 }
             }
@@ -240,18 +409,12 @@ public class World {
 
     public void setBlocks(Vector3f p1, Vector3f p2, BlockType type) {
         Set<Chunk> affectedChunks = new HashSet<>();
+        Vector3f p = new Vector3f();
         for (float x = Math.min(p1.x, p2.x); x <= Math.max(p1.x, p2.x); x++) {
             for (float y = Math.min(p1.y, p2.y); y <= Math.max(p1.y, p2.y); y++) {
                 for (float z = Math.min(p1.z, p2.z); z <= Math.max(p1.z, p2.z); z++) {
-                    Block block = getBlockFromPosition(new Vector3f(x, y, z));
-                    if (block != null) {
-                        block.type = type;
-                    } else {
-                        Vector3f p = new Vector3f((float) Math.floor(x), (float) Math.floor(y), (float) Math.floor(z));
-                        block = new Block(type);
-                        addBlock(block, p);
-                    }
-                    affectedChunks.add(block.chunk);
+                    Chunk c = setBlock(p.set(x, y, z), type);
+                    if (c != null) affectedChunks.add(c);
                 }
             }
         }
@@ -266,21 +429,15 @@ public class World {
      */
     public void setSphere(Vector3f p, int r, BlockType t, boolean hollow) {
         Set<Chunk> affectedChunks = new HashSet<>();
+        Vector3f pos = new Vector3f();
         for (float x = p.x - r; x < p.x + r; x++) {
             for (float z = p.z - r; z < p.z + r; z++) {
                 for (float y = p.y - r; y < p.y + r; y++) {
                     if (y < 0 || y > Chunk.HEIGHT - 1) continue;
                     if (p.distance((float) Math.floor(x), (float) Math.floor(y), (float) Math.floor(z)) > r) continue;
                     if (hollow && p.distance((float) Math.floor(x), (float) Math.floor(y), (float) Math.floor(z)) < r - 1) continue;
-                    Block block = getBlockFromPosition(new Vector3f(x, y, z));
-                    if (block != null) {
-                        block.type = t;
-                    } else {
-                        Vector3f pos = new Vector3f((float) Math.floor(x), (float) Math.floor(y), (float) Math.floor(z));
-                        block = new Block(t);
-                        addBlock(block, pos);
-                    }
-                    affectedChunks.add(block.chunk);
+                    Chunk c = setBlock(pos.set(x, y, z), t);
+                    if (c != null) affectedChunks.add(c);
                 }
             }
         }
@@ -299,17 +456,10 @@ public class World {
         float distance = ray.length();
         ray.normalize(0.1f);
         Vector3f step = new Vector3f(ray);
+        Vector3f p = new Vector3f();
         while (ray.length() <= distance) {
-            Vector3f p = p2.add(ray, new Vector3f());
-            Block b = getBlockFromPosition(p);
-            if (b == null) {
-                p.floor();
-                b = new Block(t);
-                addBlock(b, new Vector3f(p.x, p.y, p.z));
-            } else {
-                b.type = t;
-            }
-            affectedChunks.add(b.chunk);
+            Chunk c = setBlock(p2.add(ray, p), t);
+            if (c != null) affectedChunks.add(c);
             ray.add(step);
         }
         for (Chunk c : affectedChunks) c.regenerateMesh();
@@ -334,17 +484,16 @@ public class World {
         if (InputController.primaryMouseClicked()) {
             Block block = camera.getBlockAtCrosshair(app, this, camera.clickRange);
             if (block != null) {
-                Chunk c = block.chunk;
-                c.removeBlock(block.inChunkX, block.inChunkY, block.inChunkZ);
-                c.regenerateMesh();
+                Chunk c = removeBlock(block.getPosition());
+                if (c != null) c.regenerateMesh();
             }
         }
 
         if (InputController.secondaryMouseClicked()) {
             Vector3f loc = camera.getBlockPlaceCoordinatesAtCrosshair(app, this);
             if (loc != null && Toolbar.getSelectedBlock() != null) {
-                addBlock(new Block(Toolbar.getSelectedBlock()), new Vector3f(loc.x, loc.y, loc.z));
-                getChunkFromPosition(loc).regenerateMesh();
+                Chunk c = setBlock(loc, Toolbar.getSelectedBlock());
+                if (c != null) c.regenerateMesh();
             }
         }
 
@@ -1,6 +1,9 @@
+import org.joml.Vector3f;
 import org.joml.Vector3i;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -9,22 +12,35 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 public abstract class WorldGenerator {
 
-    // Currently running jobs
-    public HashMap<Thread, GenerationJob> jobs;
+    // Memory budget of the cache of generated chunks, -DgenerationCache=<megabytes> to change
+    public static final long CACHE_BUDGET = Long.getLong("generationCache", 32) << 20;
+    // Recently generated chunks by generator configuration and origin, shared by all generators
+    public static final ChunkCache generated = new ChunkCache(CACHE_BUDGET);
+    // Chunks served from the cache, and chunks that had to be generated
+    public static final AtomicInteger cacheHits = new AtomicInteger();
+    public static final AtomicInteger cacheMisses = new AtomicInteger();
+    // Chunks generated from scratch, and the time spent generating them
+    public static final AtomicInteger generatedChunks = new AtomicInteger();
+    public static final AtomicLong generationNanos = new AtomicLong();
+    public static final AtomicLong slowestGenerationNanos = new AtomicLong();
+
+    // Currently queued or running jobs
+    public LongHashMap<ChunkTask> jobs;
     private Lock jobLock;
     // All keys of chunks that are currently either running or in the queue
-    public Set<Vector3i> inProgress;
+    public LongHashMap<Vector3i> inProgress;
     // Chunks that are done and need to be gathered by main thread
     private List<Chunk> chunkQueue;
     // Mutex for the previous list
     private Lock chunkQueueLock;
 
     public HashMap<String, String> config;
+    private String configKey;
 
     public WorldGenerator() {
-        jobs = new HashMap<>();
+        jobs = new LongHashMap<>();
         jobLock = new ReentrantLock(true);
-        inProgress = new HashSet<>();
+        inProgress = new LongHashMap<>();
         chunkQueue = new ArrayList<>();
         chunkQueueLock = new ReentrantLock(true);
         config = new HashMap<>();
@@ -38,6 +54,77 @@ public abstract class WorldGenerator {
      */
     abstract Chunk generate(World world, Chunk chunk);
 
+    /**
+     * Identity of this generator and its configuration, generators with equal keys make the same chunks
+     * @return
+     */
+    public String configKey() {
+        if (configKey == null) configKey = getClass().getSimpleName() + new TreeMap<>(config);
+        return configKey;
+    }
+
+    /**
+     * Keep an unloaded unmodified chunk in the cache, it may be dropped again to stay within budget
+     * @param chunk
+     */
+    public void cache(Chunk chunk) {
+        generated.put(configKey(), chunk);
+    }
+
+    /**
+     * Generate the chunk at the origin, or take it from the cache
+     * @param world
+     * @param origin
+     * @return unmodified chunk without mesh
+     */
+    public Chunk generateNow(World world, Vector3i origin) {
+        ChunkCache.Entry cached = generated.take(configKey(), Chunk.key(origin));
+        Chunk chunk = (cached == null) ? null : cached.restore(world);
+        if (chunk != null) {
+            cacheHits.incrementAndGet();
+            return chunk;
+        }
+        cacheMisses.incrementAndGet();
+        return generateFresh(world, origin);
+    }
+
+    /**
+     * What this generator makes of the chunk at the origin, from the cache if it is there,
+     * otherwise it is generated and cached
+     * @param world
+     * @param origin
+     * @return unmodified chunk the caller owns
+     */
+    public Chunk baseline(World world, Vector3i origin) {
+        Chunk chunk = generated.copy(configKey(), Chunk.key(origin), world);
+        if (chunk != null) {
+            cacheHits.incrementAndGet();
+            return chunk;
+        }
+        cacheMisses.incrementAndGet();
+        chunk = generateFresh(world, origin);
+        // The cache owns the copy, it need not keep the world alive until it is compressed
+        Chunk copy = chunk.snapshot();
+        copy.world = null;
+        generated.put(configKey(), copy);
+        return chunk;
+    }
+
+    private Chunk generateFresh(World world, Vector3i origin) {
+        long start = System.nanoTime();
+        Chunk chunk = new Chunk(world, origin.x, origin.y, origin.z);
+        generate(world, chunk);
+        // Collapse uniformly filled sections
+        chunk.compact();
+        long time = System.nanoTime() - start;
+        generatedChunks.incrementAndGet();
+        generationNanos.addAndGet(time);
+        slowestGenerationNanos.accumulateAndGet(time, Math::max);
+        // Mark as unmodified as it has been freshly generated
+        chunk.modified = false;
+        return chunk;
+    }
+
     /**
      * Dispatch a job to generate the given chunk for the given world
      * @param world
@@ -45,41 +132,49 @@ public abstract class WorldGenerator {
      */
     public void dispatch(World world, Chunk chunk) {
         GenerationJob job = new GenerationJob(this, world, chunk);
-        Thread thread = new Thread(job);
         jobLock.lock();
-        jobs.put(thread, job);
-        inProgress.add(chunk.origin);
+        inProgress.put(chunk.key(), chunk.origin);
+        jobs.put(chunk.key(), Workers.compute(job, chunk.origin));
         jobLock.unlock();
-        thread.start();
     }
 
     /**
      * Gather all 'done' chunks and clear the queue
-     * also eliminate the threads
+     * also forget the finished jobs
      * @return
      */
     public List<Chunk> gather() {
-        List<Thread> finished = new ArrayList<>();
         jobLock.lock();
-        for (Thread thread : jobs.keySet()) {
-            if (!thread.isAlive()) {
-                finished.add(thread);
-            }
-        }
-        for (Thread thread : finished) {
-            try {
-                thread.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
-        for (Thread thread : finished) jobs.remove(thread);
         List<Chunk> results = clearQueue();
-        for (Chunk c : results) inProgress.remove(c.origin);
+        for (Chunk c : results) {
+            inProgress.remove(c.key());
+            jobs.remove(c.key());
+        }
         jobLock.unlock();
         return results;
     }
 
+    /**
+     * Cancel queued jobs for chunks further than range from the position
+     * @param position
+     * @param range
+     * @return number of cancelled jobs
+     */
+    public int cancelOutside(Vector3f position, float range) {
+        List<ChunkTask> cancelled = new ArrayList<>();
+        jobLock.lock();
+        for (ChunkTask job : jobs) {
+            if (position.distance(job.origin.x, job.origin.y, job.origin.z) <= range) continue;
+            if (job.cancelIfQueued()) cancelled.add(job);
+        }
+        for (ChunkTask job : cancelled) {
+            inProgress.remove(Chunk.key(job.origin));
+            jobs.remove(Chunk.key(job.origin));
+        }
+        jobLock.unlock();
+        return cancelled.size();
+    }
+
     /**
      * Get all chunks from the queue, and clear it
      * @return
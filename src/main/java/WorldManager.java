@@ -6,14 +6,13 @@ import org.json.JSONObject;
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
 /**
@@ -21,6 +20,9 @@ import java.util.zip.ZipOutputStream;
  */
 public class WorldManager {
 
+    // Background thread writing the last export
+    private static Thread exportThread;
+
     /**
      * Let user pick a file and import world
      * @param app
@@ -30,106 +32,146 @@ public class WorldManager {
         // Ask user which file to output to
         try {
             File file = promptFileLocation();
-            List<File> chunkFiles = new ArrayList<>();
-            File worldFile = null;
-            // Make a temporary directory to extract to
-            Path extractDir = Files.createTempDirectory("blockworldeditor");
-            extractDir.toFile().deleteOnExit();
-            // Read the zip and extract files
-            byte[] buffer = new byte[1024];
-            ZipInputStream zis = new ZipInputStream(new FileInputStream(file));
-            ZipEntry zipEntry = zis.getNextEntry();
-            while (zipEntry != null) {
-                File newFile = new File(extractDir.toFile(), zipEntry.getName());
-                newFile.deleteOnExit();
-                FileOutputStream fos = new FileOutputStream(newFile);
-                int len;
-                while ((len = zis.read(buffer)) > 0) {
-                    fos.write(buffer, 0, len);
-                }
-                fos.close();
-                if (zipEntry.getName().endsWith(".chunk")) chunkFiles.add(newFile);
-                else if (zipEntry.getName().equals("world.json")) worldFile = newFile;
-                zipEntry = zis.getNextEntry();
-            }
-            zis.closeEntry();
-            zis.close();
-            // Create the world
-            JSONObject worldJSON = new JSONObject(Files.readString(worldFile.toPath()));
-            JSONObject genJSON = worldJSON.getJSONObject("generator");
-            World world = new World(app,
-                    new HillWorldGenerator(
-                            genJSON.getLong("seed"),
-                            genJSON.getInt("height"),
-                            genJSON.getInt("amplitude"),
-                            genJSON.getFloat("frequency")
-                    )
-            );
-            // Set camera state
-            world.camera.position.x = worldJSON.getJSONObject("camera").getJSONObject("position").getFloat("x");
-            world.camera.position.y = worldJSON.getJSONObject("camera").getJSONObject("position").getFloat("y");
-            world.camera.position.z = worldJSON.getJSONObject("camera").getJSONObject("position").getFloat("z");
-            world.camera.pitch = worldJSON.getJSONObject("camera").getJSONObject("rotation").getFloat("pitch");
-            world.camera.yaw = worldJSON.getJSONObject("camera").getJSONObject("rotation").getFloat("yaw");
-            world.camera.roll = worldJSON.getJSONObject("camera").getJSONObject("rotation").getFloat("roll");
-            // Set directional light state
-            world.sun.getLight().position.x = worldJSON.getJSONObject("dirLight").getJSONObject("position").getFloat("x");
-            world.sun.getLight().position.y = worldJSON.getJSONObject("dirLight").getJSONObject("position").getFloat("y");
-            world.sun.getLight().position.z = worldJSON.getJSONObject("dirLight").getJSONObject("position").getFloat("z");
-            world.sun.getLight().ambient.x = worldJSON.getJSONObject("dirLight").getJSONObject("ambient").getFloat("r");
-            world.sun.getLight().ambient.y = worldJSON.getJSONObject("dirLight").getJSONObject("ambient").getFloat("g");
-            world.sun.getLight().ambient.z = worldJSON.getJSONObject("dirLight").getJSONObject("ambient").getFloat("b");
-            world.sun.getLight().diffuse.x = worldJSON.getJSONObject("dirLight").getJSONObject("diffuse").getFloat("r");
-            world.sun.getLight().diffuse.y = worldJSON.getJSONObject("dirLight").getJSONObject("diffuse").getFloat("g");
-            world.sun.getLight().diffuse.z = worldJSON.getJSONObject("dirLight").getJSONObject("diffuse").getFloat("b");
-            world.sun.getLight().specular.x = worldJSON.getJSONObject("dirLight").getJSONObject("specular").getFloat("r");
-            world.sun.getLight().specular.y = worldJSON.getJSONObject("dirLight").getJSONObject("specular").getFloat("g");
-            world.sun.getLight().specular.z = worldJSON.getJSONObject("dirLight").getJSONObject("specular").getFloat("b");
-            // Reset the archiver and repopulate with the newly loaded stuff
+            // Only the index is read now, chunk entries are decoded once the world asks for them
+            ZipChunkSource source = new ZipChunkSource(file);
+            byte[] worldData = source.readEntry("world.json");
+            JSONObject worldJSON = new JSONObject(new String(worldData, StandardCharsets.UTF_8));
+            World world = fromJSON(app, worldJSON);
+            // Reset the archiver and hand it the file, once a running export is done with it
+            awaitExport();
             ChunkArchiver.reset();
-            JSONArray chunkIndex = worldJSON.getJSONArray("chunks");
-            // Go over all indexed chunks
-            for (int i = 0; i < chunkIndex.length(); i++) {
-                // Get position and name
-                JSONObject c = chunkIndex.getJSONObject(i);
-                JSONArray p = c.getJSONArray("p");
-                Vector3i origin = new Vector3i(p.getInt(0), p.getInt(1), p.getInt(2));
-                String n = c.getString("n");
-                // Find the appropriate file
-                for (File f : chunkFiles) {
-                    if (f.getName().equals(n)) {
-                        ChunkArchiver.unloadedChunksLock.lock();
-                        ChunkArchiver.unloadedChunks.put(origin, f);
-                        ChunkArchiver.unloadedChunksLock.unlock();
-                        break;
-                    }
-                }
-            }
-            // Make sure to load the chunks that need to be loaded from archive / generator
-            int generating = world.manageChunks();
-            while (world.chunks.size() < generating) {
-                world.gatherChunks();
-                Thread.sleep(50);
-            }
+            indexChunks(source, worldJSON);
+            ChunkArchiver.imported = source;
+            EditJournal.start(world, file);
+            // Load the spawn area, the rest streams in from the file / generator
+            world.loadSpawn();
             return world;
-        } catch (IOException | InterruptedException e) {
+        } catch (IOException e) {
             e.printStackTrace();
             return null;
         }
     }
 
+    /**
+     * Create the generator described by the generator section of a world.json
+     * Worlds from before there were several generator types are hill worlds
+     * @param genJSON
+     * @return
+     * @throws IOException if the configuration is invalid
+     */
+    static WorldGenerator generatorFromJSON(JSONObject genJSON) throws IOException {
+        if (genJSON.optString("type", "hill").equals("flat")) {
+            try {
+                return new FlatWorldGenerator(
+                        genJSON.getInt("l1"), BlockType.valueOf(genJSON.getString("l1t")),
+                        genJSON.getInt("l2"), BlockType.valueOf(genJSON.getString("l2t")),
+                        genJSON.getInt("l3"), BlockType.valueOf(genJSON.getString("l3t"))
+                );
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid generator configuration", e);
+            }
+        }
+        if (genJSON.optString("type", "hill").equals("fractal")) {
+            try {
+                return new FractalWorldGenerator(
+                        genJSON.getLong("seed"),
+                        genJSON.getInt("height"),
+                        genJSON.getInt("amplitude"),
+                        genJSON.getFloat("frequency"),
+                        genJSON.getInt("octaves"),
+                        genJSON.getInt("cellWidth"),
+                        genJSON.getInt("cellHeight")
+                );
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid generator configuration", e);
+            }
+        }
+        return new HillWorldGenerator(
+                genJSON.getLong("seed"),
+                genJSON.getInt("height"),
+                genJSON.getInt("amplitude"),
+                genJSON.getFloat("frequency")
+        );
+    }
+
+    /**
+     * Create a world from its world.json, without any chunks
+     * @param app
+     * @param worldJSON
+     * @return
+     * @throws IOException if the generator configuration is invalid
+     */
+    static World fromJSON(App app, JSONObject worldJSON) throws IOException {
+        // Create the world
+        JSONObject genJSON = worldJSON.getJSONObject("generator");
+        World world = new World(app, generatorFromJSON(genJSON));
+        // Set camera state
+        world.camera.position.x = worldJSON.getJSONObject("camera").getJSONObject("position").getFloat("x");
+        world.camera.position.y = worldJSON.getJSONObject("camera").getJSONObject("position").getFloat("y");
+        world.camera.position.z = worldJSON.getJSONObject("camera").getJSONObject("position").getFloat("z");
+        world.camera.pitch = worldJSON.getJSONObject("camera").getJSONObject("rotation").getFloat("pitch");
+        world.camera.yaw = worldJSON.getJSONObject("camera").getJSONObject("rotation").getFloat("yaw");
+        world.camera.roll = worldJSON.getJSONObject("camera").getJSONObject("rotation").getFloat("roll");
+        // Set meshing mode
+        world.greedyMeshing = worldJSON.optBoolean("greedyMeshing", true);
+        // Set directional light state
+        world.sun.getLight().position.x = worldJSON.getJSONObject("dirLight").getJSONObject("position").getFloat("x");
+        world.sun.getLight().position.y = worldJSON.getJSONObject("dirLight").getJSONObject("position").getFloat("y");
+        world.sun.getLight().position.z = worldJSON.getJSONObject("dirLight").getJSONObject("position").getFloat("z");
+        world.sun.getLight().ambient.x = worldJSON.getJSONObject("dirLight").getJSONObject("ambient").getFloat("r");
+        world.sun.getLight().ambient.y = worldJSON.getJSONObject("dirLight").getJSONObject("ambient").getFloat("g");
+        world.sun.getLight().ambient.z = worldJSON.getJSONObject("dirLight").getJSONObject("ambient").getFloat("b");
+        world.sun.getLight().diffuse.x = worldJSON.getJSONObject("dirLight").getJSONObject("diffuse").getFloat("r");
+        world.sun.getLight().diffuse.y = worldJSON.getJSONObject("dirLight").getJSONObject("diffuse").getFloat("g");
+        world.sun.getLight().diffuse.z = worldJSON.getJSONObject("dirLight").getJSONObject("diffuse").getFloat("b");
+        world.sun.getLight().specular.x = worldJSON.getJSONObject("dirLight").getJSONObject("specular").getFloat("r");
+        world.sun.getLight().specular.y = worldJSON.getJSONObject("dirLight").getJSONObject("specular").getFloat("g");
+        world.sun.getLight().specular.z = worldJSON.getJSONObject("dirLight").getJSONObject("specular").getFloat("b");
+        return world;
+    }
+
+    /**
+     * Register the chunk entries of a world file by its chunk index
+     * @param source
+     * @param worldJSON world.json of the file
+     */
+    static void indexChunks(ZipChunkSource source, JSONObject worldJSON) {
+        JSONArray chunkIndex = worldJSON.getJSONArray("chunks");
+        // Go over all indexed chunks
+        for (int i = 0; i < chunkIndex.length(); i++) {
+            // Get position and name
+            JSONObject c = chunkIndex.getJSONObject(i);
+            JSONArray p = c.getJSONArray("p");
+            Vector3i origin = new Vector3i(p.getInt(0), p.getInt(1), p.getInt(2));
+            String n = c.getString("n");
+            // Register where its payload is
+            source.add(origin, n);
+        }
+    }
+
     /**
      * Export the world to the users prefered file
      * @param world
      * @return
      */
     static File exportWorld(World world) {
+        if (exportThread != null && exportThread.isAlive()) {
+            JOptionPane.showMessageDialog(new JDialog(), "An export is still running");
+            return null;
+        }
         File file = promptFileLocation();
+        return exportToFile(world, file);
+    }
+
+    /**
+     * Wait for a running export to finish
+     */
+    static void awaitExport() {
+        if (exportThread == null) return;
         try {
-            return exportToFile(world, file);
-        } catch (IOException e) {
+            exportThread.join();
+        } catch (InterruptedException e) {
             e.printStackTrace();
-            return null;
         }
     }
 
@@ -151,17 +193,56 @@ public class WorldManager {
 
     /**
      * Export the world to the specified file
+     * Chunks are snapshot on the calling thread, then encoded and compressed on the compute workers
+     * and streamed into the file by a background thread, which reports when it is done
      * @param world
      * @param file
-     * @return
-     * @throws FileNotFoundException
+     * @return the file being written
      */
-    static File exportToFile(World world, File file) throws IOException {
+    static File exportToFile(World world, File file) {
         // The destination zip file
-        file = new File(file + ".bwe");
-        FileOutputStream fos = new FileOutputStream(file);
-        ZipOutputStream zipOut = new ZipOutputStream(fos);
+        File target = new File(file + ".bwe");
 
+        // JSON object builder for world index
+        JSONObject worldJSON = toJSON(world);
+
+        // Snapshot every chunk that holds edits: archived ones are read from the store by the workers,
+        // which keeps their payloads until the export ends, the rest is copied here
+        long start = System.nanoTime();
+        List<Vector3i> archived = new ArrayList<>();
+        List<Chunk> snapshots = new ArrayList<>();
+        ChunkArchiver.beginExport(archived, snapshots);
+        for (Chunk c : world.chunks) {
+            if (c.modified) snapshots.add(c.snapshot());
+        }
+        List<ExportChunkJob> jobs = new ArrayList<>();
+        for (Vector3i origin : archived) jobs.add(new ExportChunkJob(origin, null));
+        for (Chunk c : snapshots) jobs.add(new ExportChunkJob(c.origin, c));
+        for (ExportChunkJob job : jobs) job.task = Workers.compute(job);
+
+        exportThread = new Thread(() -> {
+            try {
+                writeExport(target, worldJSON, jobs);
+                String report = String.format("Exported %d chunks to %s\n%.1f KB in %.0f ms", jobs.size(), target.getName(),
+                        target.length() / 1024f, (System.nanoTime() - start) / 1e6);
+                System.out.println(report);
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(new JDialog(), report));
+            } catch (IOException | InterruptedException | ExecutionException e) {
+                e.printStackTrace();
+            } finally {
+                ChunkArchiver.endExport();
+            }
+        }, "world-export");
+        exportThread.start();
+        return target;
+    }
+
+    /**
+     * World state as world.json, without the chunk index
+     * @param world
+     * @return
+     */
+    static JSONObject toJSON(World world) {
         // JSON object builder for world index
         JSONObject worldJSON = new JSONObject();
         // Export camera state to json
@@ -170,63 +251,65 @@ public class WorldManager {
         // Export dir light to json
         JSONObject dirLight = world.sun.getLight().toJSON();
         worldJSON.put("dirLight", dirLight);
+        // Set meshing mode
+        worldJSON.put("greedyMeshing", world.greedyMeshing);
         // Set generator
         JSONObject genJSON = new JSONObject(world.worldGenerator.config);
         worldJSON.put("generator", genJSON);
-        // Chunk file indexing
-        JSONArray chunks = new JSONArray();
-        ChunkArchiver.unloadedChunksLock.lock();
-        for (Vector3i key : ChunkArchiver.unloadedChunks.keySet()) {
-            JSONObject chunkJSON = new JSONObject();
-            chunkJSON.put("p", new JSONArray(new int[]{key.x, key.y, key.z}));
-            chunkJSON.put("n", ChunkArchiver.unloadedChunks.get(key).getName());
-            chunks.put(chunkJSON);
-            FileInputStream fis = new FileInputStream(ChunkArchiver.unloadedChunks.get(key));
-            ZipEntry zipEntry = new ZipEntry(ChunkArchiver.unloadedChunks.get(key).getName());
-            zipOut.putNextEntry(zipEntry);
-            byte[] bytes = new byte[1024]; int length;
-            while((length = fis.read(bytes)) >= 0) {
-                zipOut.write(bytes, 0, length);
-            }
-            fis.close();
-        }
-        for (Chunk c : world.chunks) {
-            if (!c.modified) continue;
-            File f = Chunk.toFile(c);
-            JSONObject chunkJSON = new JSONObject();
-            chunkJSON.put("p", new JSONArray(new int[]{c.origin.x, c.origin.y, c.origin.z}));
-            chunkJSON.put("n", f.getName());
-            chunks.put(chunkJSON);
-            FileInputStream fis = new FileInputStream(f);
-            ZipEntry zipEntry = new ZipEntry(f.getName());
-            zipOut.putNextEntry(zipEntry);
-            byte[] bytes = new byte[1024]; int length;
-            while((length = fis.read(bytes)) >= 0) {
-                zipOut.write(bytes, 0, length);
+        return worldJSON;
+    }
+
+    /**
+     * Write the finished chunk entries in order, then the world index
+     */
+    private static void writeExport(File target, JSONObject worldJSON, List<ExportChunkJob> jobs)
+            throws IOException, InterruptedException, ExecutionException {
+        // Write next to the target and move it over when done, the imported world may still be read from it
+        File partial = new File(target + ".part");
+        try (ZipOutputStream zipOut = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(partial)))) {
+            // Chunk file indexing
+            JSONArray chunks = new JSONArray();
+            for (ExportChunkJob job : jobs) {
+                job.task.get();
+                if (job.payload == null) continue;
+                putChunk(zipOut, chunks, job.origin, job.payload, job.crc);
             }
-            fis.close();
-            f.delete();
+            worldJSON.put("chunks", chunks);
+            zipOut.putNextEntry(new ZipEntry("world.json"));
+            zipOut.write(worldJSON.toString().getBytes(StandardCharsets.UTF_8));
         }
-        worldJSON.put("chunks", chunks);
-        ChunkArchiver.unloadedChunksLock.unlock();
-        // Write to file
-        File tempFile = new File(file + ".json");
-        try (PrintWriter out = new PrintWriter(tempFile)) {
-            out.print(worldJSON);
+        ZipChunkSource source = ChunkArchiver.imported;
+        if (source != null && Files.exists(target.toPath()) && Files.isSameFile(source.getFile().toPath(), target.toPath())) {
+            // Overwriting the imported world, which holds it open
+            source.replace(partial.toPath());
+        } else {
+            Files.move(partial.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
         }
-        // Apply zip to compress
-        FileInputStream fis = new FileInputStream(tempFile);
-        ZipEntry zipEntry = new ZipEntry("world.json");
+    }
+
+    /**
+     * Write a chunk entry to the export and add it to the chunk index
+     * Payloads are already compressed, so the entry is stored rather than deflated again
+     * @param zipOut
+     * @param chunks chunk index of world.json
+     * @param origin
+     * @param data see ChunkCodec
+     * @param crc CRC-32 of data
+     * @throws IOException
+     */
+    private static void putChunk(ZipOutputStream zipOut, JSONArray chunks, Vector3i origin, byte[] data, long crc) throws IOException {
+        String name = origin.x + "_" + origin.z + ".chunk";
+        JSONObject chunkJSON = new JSONObject();
+        chunkJSON.put("p", new JSONArray(new int[]{origin.x, origin.y, origin.z}));
+        chunkJSON.put("n", name);
+        chunks.put(chunkJSON);
+        ZipEntry zipEntry = new ZipEntry(name);
+        zipEntry.setMethod(ZipEntry.STORED);
+        zipEntry.setSize(data.length);
+        zipEntry.setCompressedSize(data.length);
+        zipEntry.setCrc(crc);
         zipOut.putNextEntry(zipEntry);
-        byte[] bytes = new byte[1024]; int length;
-        while((length = fis.read(bytes)) >= 0) {
-            zipOut.write(bytes, 0, length);
-        }
-        zipOut.close();
-        fis.close();
-        fos.close();
-        tempFile.delete();
-        return file;
+        zipOut.write(data);
     }
 
 }
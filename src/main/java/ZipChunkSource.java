@@ -0,0 +1,172 @@
+import org.joml.Vector3i;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Chunks of an imported world, read from the .bwe file on demand instead of extracting it
+ * Entries are looked up by chunk key, a chunk is only available until it has been taken once,
+ * after that it lives in the world or the archive
+ * Thread safe
+ */
+public class ZipChunkSource {
+
+    private final File file;
+    private ZipFile zip;
+    // Held for reading entries, and exclusively while the file is replaced
+    private final ReadWriteLock zipLock = new ReentrantReadWriteLock();
+    // Entry of every indexed chunk by packed chunk key
+    private final LongHashMap<ZipEntry> entries = new LongHashMap<>();
+    // Chunks not taken yet, origin by packed chunk key
+    private final LongHashMap<Vector3i> available = new LongHashMap<>();
+
+    /**
+     * Open a world file for random access
+     * @param file
+     * @throws IOException
+     */
+    public ZipChunkSource(File file) throws IOException {
+        this.file = file;
+        this.zip = new ZipFile(file);
+    }
+
+    /**
+     * Read a whole entry
+     * @param name
+     * @return contents, null if there is no such entry
+     * @throws IOException
+     */
+    public byte[] readEntry(String name) throws IOException {
+        zipLock.readLock().lock();
+        try {
+            ZipEntry entry = zip.getEntry(name);
+            if (entry == null) return null;
+            try (InputStream in = zip.getInputStream(entry)) {
+                return in.readAllBytes();
+            }
+        } finally {
+            zipLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Register the entry holding the chunk at the origin
+     * @param origin
+     * @param name entry name
+     * @return is there such an entry
+     */
+    public synchronized boolean add(Vector3i origin, String name) {
+        ZipEntry entry = zip.getEntry(name);
+        if (entry == null) return false;
+        long key = Chunk.key(origin);
+        entries.put(key, entry);
+        available.put(key, new Vector3i(origin));
+        return true;
+    }
+
+    public synchronized boolean contains(long key) {
+        return available.containsKey(key);
+    }
+
+    /**
+     * Mark a chunk as taken, it stays readable for running exports
+     * @param key packed chunk key
+     * @return was it still available
+     */
+    public synchronized boolean take(long key) {
+        return available.remove(key) != null;
+    }
+
+    /**
+     * Read the payload of a chunk, taken or not
+     * @param key packed chunk key
+     * @return payload, see ChunkCodec, null if the chunk is not in this file
+     * @throws IOException
+     */
+    public byte[] read(long key) throws IOException {
+        zipLock.readLock().lock();
+        try {
+            ZipEntry entry;
+            synchronized (this) {
+                entry = entries.get(key);
+            }
+            if (entry == null) return null;
+            try (InputStream in = zip.getInputStream(entry)) {
+                return in.readAllBytes();
+            }
+        } finally {
+            zipLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Add the origins of all chunks not taken yet
+     * @param origins
+     */
+    public synchronized void availableOrigins(List<Vector3i> origins) {
+        for (Vector3i origin : available) origins.add(new Vector3i(origin));
+    }
+
+    public synchronized int availableCount() {
+        return available.size();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Replace the world file by a new one while keeping it open, as the file can not be replaced
+     * while it is open on every platform
+     * The new file must hold every chunk not taken yet under the same entry name, like an export does
+     * @param replacement file to move over the world file
+     * @throws IOException if it could not be moved, the world file is still read then
+     */
+    public void replace(Path replacement) throws IOException {
+        zipLock.writeLock().lock();
+        try {
+            zip.close();
+            try {
+                Files.move(replacement, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                zip = new ZipFile(file);
+            }
+            // Entries of the closed file can not be read from the new one
+            synchronized (this) {
+                List<Long> gone = new ArrayList<>();
+                for (int slot = 0; slot < entries.capacity(); slot++) {
+                    ZipEntry entry = entries.valueAt(slot);
+                    if (entry == null) continue;
+                    ZipEntry moved = zip.getEntry(entry.getName());
+                    if (moved != null) entries.put(entries.keyAt(slot), moved);
+                    else gone.add(entries.keyAt(slot));
+                }
+                for (long key : gone) entries.remove(key);
+            }
+        } finally {
+            zipLock.writeLock().unlock();
+        }
+    }
+
+    public void close() {
+        zipLock.writeLock().lock();
+        try {
+            zip.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            zipLock.writeLock().unlock();
+        }
+    }
+
+}
@@ -29,8 +29,10 @@ uniform float renderDistance;
 uniform vec3 skyColor;
 uniform sampler2D shadowMap;
 uniform float fullShadow;
+uniform float tileSize;
 
 in vec2 pass_textureCoords;
+in vec2 pass_tile;
 in vec3 fragPosition;
 in vec3 fragNormal;
 in vec4 shadowPosition;
@@ -106,8 +108,8 @@ void main() {
         lightColor += CalcPointLight(pointLights[i], norm, fragPosition, viewDir);
     }
 
-    // get object color from texture
-    vec4 objectColor = texture(textureSampler, pass_textureCoords);
+    // get object color from texture, repeating the tile once per block
+    vec4 objectColor = texture(textureSampler, pass_tile + fract(pass_textureCoords) * tileSize);
 
     // compute full light
     pixel_colour = vec4(lightColor, 1.0) * objectColor;
@@ -117,4 +119,4 @@ void main() {
     float distance = length(fragPosition.xz - viewPosition.xz);
     float visibility = clamp(-gradient * (distance - renderDistance - 10), 0.0, 1.0);
     pixel_colour = mix(vec4(skyColor, 1.0), pixel_colour, visibility);
-}
\ No newline at end of file
+}
\ No newline at end of file
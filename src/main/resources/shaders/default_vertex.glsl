@@ -7,23 +7,41 @@ uniform mat4 projectionMatrix;
 uniform mat4 shadowTransformationViewMatrix;
 uniform mat4 shadowProjectionMatrix;
 
-in vec4 position;
-in vec2 textureCoords;
-in vec3 normal;
+uniform float tileSize;
+
+// Packed vertex data, see MeshBuilder
+in uint packedVertex;
+in uint packedTexture;
 
 out vec2 pass_textureCoords;
+out vec2 pass_tile;
 out vec3 fragPosition;
 out vec3 fragNormal;
 out vec4 shadowPosition;
 
+const vec3 normals[6] = vec3[6](
+    vec3(0.0, 0.0, -1.0), vec3(1.0, 0.0, 0.0), vec3(0.0, 0.0, 1.0),
+    vec3(-1.0, 0.0, 0.0), vec3(0.0, 1.0, 0.0), vec3(0.0, -1.0, 0.0)
+);
 
 void main() {
+    // Unpack local position and face
+    vec4 position = vec4(
+        float(packedVertex & 63u),
+        float((packedVertex >> 6u) & 511u),
+        float((packedVertex >> 15u) & 63u),
+        1.0
+    );
+    uint face = (packedVertex >> 21u) & 7u;
+
     fragPosition = vec3(transformationMatrix * position);
-    fragNormal = normal;
+    fragNormal = normals[face];
 
     gl_Position = projectionMatrix * viewMatrix * transformationMatrix * position;
 
     shadowPosition = shadowProjectionMatrix * shadowTransformationViewMatrix * position;
 
-    pass_textureCoords = textureCoords;
-}
\ No newline at end of file
+    // Unpack texture coordinates in tiles, and the tile in the sprite map
+    pass_textureCoords = vec2(float(packedTexture & 63u), float((packedTexture >> 6u) & 63u));
+    pass_tile = vec2(float((packedTexture >> 12u) & 255u), float((packedTexture >> 20u) & 255u)) * tileSize;
+}
\ No newline at end of file
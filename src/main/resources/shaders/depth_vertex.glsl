@@ -1,13 +1,19 @@
 #version 330 core
 
-in vec4 position;
-in vec2 textureCoords;
-in vec3 normal;
+// Packed vertex data, see MeshBuilder
+in uint packedVertex;
+in uint packedTexture;
 
 uniform mat4 shadowTransformationViewMatrix;
 uniform mat4 shadowProjectionMatrix;
 
 void main()
 {
+    vec4 position = vec4(
+        float(packedVertex & 63u),
+        float((packedVertex >> 6u) & 511u),
+        float((packedVertex >> 15u) & 63u),
+        1.0
+    );
     gl_Position = shadowProjectionMatrix * shadowTransformationViewMatrix * position;
 }
\ No newline at end of file
@@ -0,0 +1,91 @@
+import org.joml.Vector3i;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Archived chunks are only taken out of the archive once they are read
+ */
+public class ChunkArchiverTest {
+
+    private final Vector3i origin = new Vector3i(-64, 0, 96);
+
+    @AfterEach
+    public void reset() {
+        ChunkArchiver.reset();
+    }
+
+    @Test
+    public void fetchTakesChunkOutOfArchive() throws IOException {
+        Chunk chunk = new Chunk(null, origin.x, origin.y, origin.z);
+        chunk.fillColumn(3, 4, 0, 10, BlockType.STONE);
+        chunk.finishColumns();
+        ChunkArchiver.put(origin, ChunkCodec.encode(chunk, false));
+        Chunk fetched = ChunkArchiver.fetch(null, origin);
+        assertNotNull(fetched);
+        assertEquals(BlockType.STONE.id(), fetched.getBlockId(Chunk.index(3, 9, 4)));
+        assertFalse(ChunkArchiver.contains(Chunk.key(origin)));
+        assertNull(ChunkArchiver.store.read(Chunk.key(origin)));
+    }
+
+    @Test
+    public void exportIncludesChunkBeingFetched() throws IOException {
+        Chunk chunk = new Chunk(null, origin.x, origin.y, origin.z);
+        chunk.fillColumn(3, 4, 0, 10, BlockType.STONE);
+        chunk.finishColumns();
+        ChunkArchiver.put(origin, ChunkCodec.encode(chunk, false));
+        // Fetched by a running fetch job, it is out of the archive but not meshed and gathered yet
+        Chunk fetched = ChunkArchiver.fetch(null, origin);
+        assertNotNull(fetched);
+        List<Vector3i> archived = new ArrayList<>();
+        List<Chunk> pending = new ArrayList<>();
+        ChunkArchiver.beginExport(archived, pending);
+        try {
+            assertTrue(archived.isEmpty());
+            assertEquals(1, pending.size());
+            assertEquals(origin, pending.get(0).origin);
+            assertEquals(BlockType.STONE.id(), pending.get(0).getBlockId(Chunk.index(3, 9, 4)));
+        } finally {
+            ChunkArchiver.endExport();
+        }
+        // Once gathered it is in the world, and exported from there
+        ChunkArchiver.chunkQueue.add(fetched);
+        assertEquals(List.of(fetched), ChunkArchiver.gather());
+        archived.clear();
+        pending.clear();
+        ChunkArchiver.beginExport(archived, pending);
+        ChunkArchiver.endExport();
+        assertTrue(archived.isEmpty());
+        assertTrue(pending.isEmpty());
+    }
+
+    @Test
+    public void unreadablePayloadStaysArchived() throws IOException {
+        byte[] corrupt = ChunkCodec.encode(new Chunk(null, origin.x, origin.y, origin.z), false);
+        // Unknown section tag
+        corrupt[corrupt.length - 1] = 99;
+        ChunkArchiver.put(origin, corrupt);
+        assertNull(ChunkArchiver.fetch(null, origin));
+        assertTrue(ChunkArchiver.contains(Chunk.key(origin)));
+        assertArrayEquals(corrupt, ChunkArchiver.store.read(Chunk.key(origin)));
+        // Empty, truncated and broken legacy payloads are refused the same way
+        ByteArrayOutputStream legacy = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(legacy)) {
+            out.writeObject(new byte[1][1][1]);
+        }
+        byte[][] payloads = new byte[][]{new byte[0], new byte[]{corrupt[0]}, legacy.toByteArray()};
+        for (byte[] payload : payloads) {
+            ChunkArchiver.put(origin, payload);
+            assertNull(ChunkArchiver.fetch(null, origin));
+            assertTrue(ChunkArchiver.contains(Chunk.key(origin)));
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+import org.joml.Vector3f;
+import org.joml.Vector3i;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Collider moving a camera sized box through synthetic block data
+ */
+public class ColliderTest {
+
+    private static final float DELTA = 1e-4f;
+
+    // Same extents as the camera
+    private final Collider collider = new Collider(0.15f, 1.5f, 0.15f);
+    private final Set<Vector3i> blocks = new HashSet<>();
+    private final VoxelSource voxels = (x, y, z) -> blocks.contains(new Vector3i(x, y, z)) ? BlockType.STONE.id() : BlockStorage.AIR;
+
+    @Test
+    public void fallsOntoFloor() {
+        fill(-5, 0, -5, 5, 0, 5);
+        Vector3f position = new Vector3f(0.5f, 5f, 0.5f);
+        // A step far larger than a block must not tunnel through the floor
+        collider.move(voxels, position, new Vector3f(0, -10, 0));
+        assertTrue(collider.hitY);
+        assertFalse(collider.hitX || collider.hitZ);
+        assertEquals(1 + collider.below, position.y, DELTA);
+        assertFalse(collider.overlaps(voxels, position));
+        // Resting on the floor stays put
+        collider.move(voxels, position, new Vector3f(0, -0.1f, 0));
+        assertTrue(collider.hitY);
+        assertEquals(1 + collider.below, position.y, DELTA);
+    }
+
+    @Test
+    public void slidesAlongWall() {
+        fill(2, 0, -5, 2, 3, 5);
+        Vector3f position = new Vector3f(1.5f, 1.5f, 0.5f);
+        collider.move(voxels, position, new Vector3f(1, 0, 1));
+        // Stopped by the wall on x, still moving along it on z
+        assertTrue(collider.hitX);
+        assertFalse(collider.hitZ);
+        assertFalse(collider.hitY);
+        assertEquals(2 - collider.halfWidth, position.x, DELTA);
+        assertEquals(1.5f, position.z, DELTA);
+        assertFalse(collider.overlaps(voxels, position));
+    }
+
+    @Test
+    public void stepsIntoOneBlockGap() {
+        // Wall at x = 2 with a one block wide opening at z = 0
+        fill(2, 0, -5, 2, 3, -1);
+        fill(2, 0, 1, 2, 3, 5);
+        Vector3f position = new Vector3f(1f, 1.5f, 0.5f);
+        collider.move(voxels, position, new Vector3f(3, 0, 0));
+        assertFalse(collider.hitX);
+        assertEquals(4f, position.x, DELTA);
+        // Off center the box catches the side of the opening
+        position.set(1f, 1.5f, 0.9f);
+        collider.move(voxels, position, new Vector3f(3, 0, 0));
+        assertTrue(collider.hitX);
+        assertEquals(2 - collider.halfWidth, position.x, DELTA);
+    }
+
+    @Test
+    public void startsOverlappingBlock() {
+        blocks.add(new Vector3i(0, 0, 0));
+        blocks.add(new Vector3i(0, -2, 0));
+        Vector3f position = new Vector3f(0.5f, 1f, 0.5f);
+        assertTrue(collider.overlaps(voxels, position));
+        // The overlapped block does not hold the box, it can move out of it
+        collider.move(voxels, position, new Vector3f(0, 2, 0));
+        assertFalse(collider.hitY);
+        assertEquals(3f, position.y, DELTA);
+        assertFalse(collider.overlaps(voxels, position));
+        // Moving further in still stops at the next block
+        position.set(0.5f, 1f, 0.5f);
+        collider.move(voxels, position, new Vector3f(0, -3, 0));
+        assertTrue(collider.hitY);
+        assertEquals(-1 + collider.below, position.y, DELTA);
+    }
+
+    private void fill(int x0, int y0, int z0, int x1, int y1, int z1) {
+        for (int x = x0; x <= x1; x++) {
+            for (int y = y0; y <= y1; y++) {
+                for (int z = z0; z <= z1; z++) blocks.add(new Vector3i(x, y, z));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,35 @@
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Flat worlds share cached chunks and delta baselines only with flat worlds of the same layers
+ */
+public class FlatWorldGeneratorTest {
+
+    @Test
+    public void layersAreTheConfiguration() {
+        FlatWorldGenerator generator = new FlatWorldGenerator(10, BlockType.STONE, 3, BlockType.DIRT, 1, BlockType.GRASS);
+        assertEquals(generator.configKey(),
+                new FlatWorldGenerator(10, BlockType.STONE, 3, BlockType.DIRT, 1, BlockType.GRASS).configKey());
+        assertNotEquals(generator.configKey(),
+                new FlatWorldGenerator(20, BlockType.STONE, 3, BlockType.DIRT, 1, BlockType.GRASS).configKey());
+        assertNotEquals(generator.configKey(),
+                new FlatWorldGenerator(10, BlockType.STONE, 3, BlockType.SAND, 1, BlockType.GRASS).configKey());
+    }
+
+    @Test
+    public void configurationRoundTripsThroughJSON() throws IOException {
+        FlatWorldGenerator generator = new FlatWorldGenerator(10, BlockType.STONE, 3, BlockType.DIRT, 1, BlockType.GRASS);
+        WorldGenerator loaded = WorldManager.generatorFromJSON(new JSONObject(generator.config));
+        assertTrue(loaded instanceof FlatWorldGenerator);
+        assertEquals(generator.configKey(), loaded.configKey());
+        JSONObject invalid = new JSONObject(generator.config);
+        invalid.put("l2t", "NOT_A_BLOCK");
+        assertThrows(IOException.class, () -> WorldManager.generatorFromJSON(invalid));
+    }
+
+}
@@ -0,0 +1,98 @@
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Fractal terrain must be reproducible from its configuration, generated chunks are cached
+ * and edited chunks are stored as deltas against a regenerated chunk
+ */
+public class FractalWorldGeneratorTest {
+
+    private static final int VOXELS = Chunk.SECTIONS * Chunk.SECTION_SIZE;
+    // Chunk origins, on both sides of the axes
+    private static final int[][] ORIGINS = new int[][]{{0, 0}, {-32, 64}, {96, -128}, {-320, -32}};
+
+    @Test
+    public void sameSeedGivesIdenticalChunks() throws Exception {
+        FractalWorldGenerator generator = new FractalWorldGenerator(42, 64, 48, 200f, 4);
+        List<Chunk> expected = new ArrayList<>();
+        for (int[] origin : ORIGINS) expected.add(generate(generator, origin));
+        // Another instance with the same configuration, generating in parallel
+        FractalWorldGenerator again = new FractalWorldGenerator(42, 64, 48, 200f, 4);
+        assertEquals(generator.configKey(), again.configKey());
+        ExecutorService pool = Executors.newFixedThreadPool(ORIGINS.length);
+        try {
+            List<Future<Chunk>> chunks = new ArrayList<>();
+            for (int[] origin : ORIGINS) chunks.add(pool.submit(() -> generate(again, origin)));
+            for (int i = 0; i < ORIGINS.length; i++) {
+                assertEquals(0, mismatches(expected.get(i), chunks.get(i).get()), "chunk " + i);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void otherSeedGivesOtherChunks() {
+        Chunk a = generate(new FractalWorldGenerator(42, 64, 48, 200f, 4), ORIGINS[0]);
+        Chunk b = generate(new FractalWorldGenerator(43, 64, 48, 200f, 4), ORIGINS[0]);
+        assertTrue(mismatches(a, b) > 0);
+    }
+
+    @Test
+    public void coarseLatticeStaysCloseToPerVoxelNoise() {
+        FractalWorldGenerator coarse = new FractalWorldGenerator(42, 64, 48, 200f, 4);
+        // Cells of a single voxel sample the noise at every voxel
+        FractalWorldGenerator exact = new FractalWorldGenerator(42, 64, 48, 200f, 4, 1, 1);
+        long solid = 0, different = 0;
+        for (int[] origin : ORIGINS) {
+            Chunk chunk = generate(coarse, origin);
+            different += mismatches(chunk, generate(exact, origin));
+            for (int i = 0; i < VOXELS; i++) {
+                if (chunk.getBlockId(i) != BlockStorage.AIR) solid++;
+            }
+        }
+        assertTrue(solid > 0);
+        assertTrue(different < 0.05 * ORIGINS.length * VOXELS, different + " voxels differ");
+    }
+
+    @Test
+    public void rejectsCellsNotDividingChunk() {
+        assertThrows(IllegalArgumentException.class, () -> new FractalWorldGenerator(42, 64, 48, 200f, 4, 3, 8));
+        assertThrows(IllegalArgumentException.class, () -> new FractalWorldGenerator(42, 64, 48, 200f, 4, 4, 7));
+        assertThrows(IllegalArgumentException.class, () -> new FractalWorldGenerator(42, 64, 48, 200f, 4, 0, 8));
+    }
+
+    @Test
+    public void configurationRoundTripsThroughJSON() throws IOException {
+        FractalWorldGenerator generator = new FractalWorldGenerator(42, 64, 48, 200f, 4);
+        WorldGenerator loaded = WorldManager.generatorFromJSON(new JSONObject(generator.config));
+        assertTrue(loaded instanceof FractalWorldGenerator);
+        assertEquals(generator.configKey(), loaded.configKey());
+        // A bad saved lattice is refused instead of indexing the lattice wrongly
+        JSONObject invalid = new JSONObject(generator.config);
+        invalid.put("cellWidth", "5");
+        assertThrows(IOException.class, () -> WorldManager.generatorFromJSON(invalid));
+    }
+
+    private static Chunk generate(WorldGenerator generator, int[] origin) {
+        return generator.generate(null, new Chunk(null, origin[0], 0, origin[1]));
+    }
+
+    private static int mismatches(Chunk a, Chunk b) {
+        int mismatches = 0;
+        for (int i = 0; i < VOXELS; i++) {
+            if (a.getBlockId(i) != b.getBlockId(i)) mismatches++;
+        }
+        return mismatches;
+    }
+
+}
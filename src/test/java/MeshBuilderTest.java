@@ -0,0 +1,85 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Packed vertex format of MeshBuilder, every field must survive packing and unpacking
+ */
+public class MeshBuilderTest {
+
+    // Largest value every field can hold
+    private static final int MAX_COORD = 63, MAX_Y = 511, MAX_FACE = 7, MAX_TILE = 255;
+
+    @Test
+    public void vertexFieldsRoundTrip() {
+        for (int x : new int[]{0, MAX_COORD}) {
+            for (int y : new int[]{0, MAX_Y}) {
+                for (int z : new int[]{0, MAX_COORD}) {
+                    for (int face : new int[]{0, MAX_FACE}) {
+                        int vertex = MeshBuilder.packVertex(x, y, z, face);
+                        assertEquals(x, MeshBuilder.unpackX(vertex));
+                        assertEquals(y, MeshBuilder.unpackY(vertex));
+                        assertEquals(z, MeshBuilder.unpackZ(vertex));
+                        assertEquals(face, MeshBuilder.unpackFace(vertex));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void textureFieldsRoundTrip() {
+        for (int u : new int[]{0, MAX_COORD}) {
+            for (int v : new int[]{0, MAX_COORD}) {
+                for (int tileX : new int[]{0, MAX_TILE}) {
+                    for (int tileY : new int[]{0, MAX_TILE}) {
+                        int texture = MeshBuilder.packTexture(u, v, MeshBuilder.packTile(tileX, tileY));
+                        assertEquals(u, MeshBuilder.unpackU(texture));
+                        assertEquals(v, MeshBuilder.unpackV(texture));
+                        assertEquals(tileX, MeshBuilder.unpackTileX(texture));
+                        assertEquals(tileY, MeshBuilder.unpackTileY(texture));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void chunkCoordinatesFit() {
+        // Vertices lie on the far faces of a chunk too
+        assertTrue(Chunk.WIDTH <= MAX_COORD);
+        assertTrue(Chunk.HEIGHT <= MAX_Y);
+        assertTrue(5 <= MAX_FACE);
+    }
+
+    @Test
+    public void vertexFieldsDoNotOverlap() {
+        int[] fields = new int[]{
+                MeshBuilder.packVertex(MAX_COORD, 0, 0, 0),
+                MeshBuilder.packVertex(0, MAX_Y, 0, 0),
+                MeshBuilder.packVertex(0, 0, MAX_COORD, 0),
+                MeshBuilder.packVertex(0, 0, 0, MAX_FACE)
+        };
+        assertDisjoint(fields);
+    }
+
+    @Test
+    public void textureFieldsDoNotOverlap() {
+        int[] fields = new int[]{
+                MeshBuilder.packTexture(MAX_COORD, 0, 0),
+                MeshBuilder.packTexture(0, MAX_COORD, 0),
+                MeshBuilder.packTile(MAX_TILE, 0),
+                MeshBuilder.packTile(0, MAX_TILE)
+        };
+        assertDisjoint(fields);
+    }
+
+    private static void assertDisjoint(int[] fields) {
+        for (int i = 0; i < fields.length; i++) {
+            for (int j = i + 1; j < fields.length; j++) {
+                assertEquals(0, fields[i] & fields[j], "fields " + i + " and " + j + " overlap");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,61 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The batch evaluators must give exactly the values of calling the noise per sample,
+ * generated terrain may not depend on which of them a generator uses
+ */
+public class OpenSimplex2Test {
+
+    private static final long SEED = 42;
+    // Origins on both sides of zero and off the chunk grid
+    private static final int[][] ORIGINS = {{0, 0, 0}, {-32, -16, -32}, {-37, 5, 1001}, {4096, -300, -4099}};
+    private static final float[] FREQUENCIES = {100f, 7.5f};
+
+    @Test
+    public void noise2GridMatchesNoise2() {
+        int width = 19, depth = 13;
+        float[] grid = new float[width * depth];
+        for (int[] origin : ORIGINS) {
+            for (float frequency : FREQUENCIES) {
+                OpenSimplex2.noise2Grid(SEED, grid, origin[0], origin[2], width, depth, frequency);
+                for (int z = 0; z < depth; z++) {
+                    for (int x = 0; x < width; x++) {
+                        float expected = OpenSimplex2.noise2(SEED, (origin[0] + x) / frequency, (origin[2] + z) / frequency);
+                        assertEquals(expected, grid[z * width + x], "sample " + x + ", " + z + " at " + origin[0] + ", " + origin[2]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void noise3BoxMatchesNoise3ImproveXZ() {
+        int width = 11, height = 9, depth = 7;
+        float[] box = new float[width * height * depth];
+        for (int[] origin : ORIGINS) {
+            for (float frequency : FREQUENCIES) {
+                OpenSimplex2.noise3Box(SEED, box, origin[0], origin[1], origin[2], width, height, depth, frequency);
+                assertBox(box, origin, width, height, depth, frequency, frequency);
+                // Vertically stretched, as the fractal generator samples its lattice
+                OpenSimplex2.noise3Box(SEED, box, origin[0], origin[1], origin[2], width, height, depth, frequency, frequency / 3);
+                assertBox(box, origin, width, height, depth, frequency, frequency / 3);
+            }
+        }
+    }
+
+    private static void assertBox(float[] box, int[] origin, int width, int height, int depth,
+                                  float frequency, float verticalFrequency) {
+        for (int y = 0, index = 0; y < height; y++) {
+            for (int z = 0; z < depth; z++) {
+                for (int x = 0; x < width; x++) {
+                    float expected = OpenSimplex2.noise3_ImproveXZ(SEED, (origin[0] + x) / frequency,
+                            (origin[1] + y) / verticalFrequency, (origin[2] + z) / frequency);
+                    assertEquals(expected, box[index++], "sample " + x + ", " + y + ", " + z);
+                }
+            }
+        }
+    }
+
+}
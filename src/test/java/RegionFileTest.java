@@ -0,0 +1,162 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Durable region files, as used for checkpoints, must keep the last flushed payloads
+ * whatever happens to a checkpoint that is being written when the application dies
+ */
+public class RegionFileTest {
+
+    private static final int A = 0, B = 1, C = 2;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void flushedPayloadsSurviveReopening() throws IOException {
+        Path path = directory.resolve("r.0.0.region");
+        RegionFile region = new RegionFile(path, true);
+        region.write(A, payload(100, 1));
+        region.write(B, payload(RegionFile.SECTOR_SIZE + 1, 2));
+        // Written payloads are readable before they are flushed
+        assertArrayEquals(payload(100, 1), region.read(A));
+        region.flush();
+        region.close();
+        region = new RegionFile(path, true);
+        assertArrayEquals(payload(100, 1), region.read(A));
+        assertArrayEquals(payload(RegionFile.SECTOR_SIZE + 1, 2), region.read(B));
+        assertFalse(region.contains(C));
+        region.close();
+    }
+
+    @Test
+    public void unflushedCheckpointLeavesPreviousOne() throws IOException {
+        Path path = checkpoint();
+        long size = Files.size(path);
+        // Application dies before the next checkpoint is flushed
+        RegionFile region = new RegionFile(path, true);
+        writeNextCheckpoint(region);
+        assertArrayEquals(payload(50, 10), region.read(C));
+        region.close();
+        assertTrue(Files.size(path) > size);
+        assertPreviousCheckpoint(path);
+    }
+
+    @Test
+    public void truncatedCheckpointLeavesPreviousOne() throws IOException {
+        Path path = checkpoint();
+        long size = Files.size(path);
+        RegionFile region = new RegionFile(path, true);
+        writeNextCheckpoint(region);
+        region.close();
+        // Only part of the new payloads reached the device
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(size + RegionFile.SECTOR_SIZE / 2);
+        }
+        assertPreviousCheckpoint(path);
+    }
+
+    @Test
+    public void corruptedCheckpointLeavesPreviousOne() throws IOException {
+        Path path = checkpoint();
+        long size = Files.size(path);
+        RegionFile region = new RegionFile(path, true);
+        writeNextCheckpoint(region);
+        region.close();
+        // Torn writes, the new payloads hold garbage
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            byte[] garbage = new byte[(int) (file.length() - size)];
+            Arrays.fill(garbage, (byte) 0xA5);
+            file.seek(size);
+            file.write(garbage);
+        }
+        assertPreviousCheckpoint(path);
+    }
+
+    @Test
+    public void replacedSectorsAreReusedAfterFlush() throws IOException {
+        Path path = checkpoint();
+        RegionFile region = new RegionFile(path, true);
+        for (int i = 0; i < 2; i++) {
+            writeNextCheckpoint(region);
+            region.flush();
+        }
+        long size = Files.size(path);
+        // Rewriting the same payloads again fits in the sectors released by earlier checkpoints
+        for (int i = 0; i < 3; i++) {
+            writeNextCheckpoint(region);
+            region.flush();
+            assertEquals(size, Files.size(path));
+        }
+        region.close();
+        region = new RegionFile(path, true);
+        assertArrayEquals(payload(3 * RegionFile.SECTOR_SIZE, 3), region.read(A));
+        assertArrayEquals(payload(200, 4), region.read(B));
+        assertArrayEquals(payload(50, 10), region.read(C));
+        region.close();
+    }
+
+    @Test
+    public void deleteIsDeferredUntilFlush() throws IOException {
+        Path path = checkpoint();
+        RegionFile region = new RegionFile(path, true);
+        region.delete(A);
+        assertFalse(region.contains(A));
+        region.close();
+        assertPreviousCheckpoint(path);
+        region = new RegionFile(path, true);
+        region.delete(A);
+        region.flush();
+        region.close();
+        region = new RegionFile(path, true);
+        assertFalse(region.contains(A));
+        assertArrayEquals(payload(200, 2), region.read(B));
+        region.close();
+    }
+
+    /**
+     * Region file holding a flushed checkpoint of chunks A and B, a sector each
+     */
+    private Path checkpoint() throws IOException {
+        Path path = directory.resolve("r.0.0.region");
+        RegionFile region = new RegionFile(path, true);
+        region.write(A, payload(100, 1));
+        region.write(B, payload(200, 2));
+        region.flush();
+        region.close();
+        return path;
+    }
+
+    /**
+     * Write the next checkpoint without flushing it: A grows and moves, B still fits in its sector
+     * and the new chunk C would fit in the sector A leaves
+     */
+    private static void writeNextCheckpoint(RegionFile region) throws IOException {
+        region.write(A, payload(3 * RegionFile.SECTOR_SIZE, 3));
+        region.write(B, payload(200, 4));
+        region.write(C, payload(50, 10));
+    }
+
+    private static void assertPreviousCheckpoint(Path path) throws IOException {
+        RegionFile region = new RegionFile(path, true);
+        assertArrayEquals(payload(100, 1), region.read(A));
+        assertArrayEquals(payload(200, 2), region.read(B));
+        assertFalse(region.contains(C));
+        region.close();
+    }
+
+    private static byte[] payload(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) data[i] = (byte) (seed * 31 + i);
+        return data;
+    }
+
+}
@@ -0,0 +1,61 @@
+import org.joml.Vector3f;
+import org.joml.Vector3i;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Io tasks wait in the prioritized queue, on platform and virtual threads alike
+ */
+public class WorkersTest {
+
+    @Test
+    public void queuedIoRunsClosestFirstAndCanBeCancelled() throws Exception {
+        int workers = Workers.isIoVirtual() ? Workers.VIRTUAL_IO_THREADS : Workers.IO_THREADS;
+        // Occupy every io worker, the first one is let go to drain the queue on its own
+        CountDownLatch first = new CountDownLatch(1), rest = new CountDownLatch(1);
+        CountDownLatch busy = new CountDownLatch(workers);
+        for (int i = 0; i < workers; i++) {
+            CountDownLatch gate = (i == 0) ? first : rest;
+            Workers.io(() -> {
+                busy.countDown();
+                await(gate);
+            });
+        }
+        try {
+            assertTrue(busy.await(10, TimeUnit.SECONDS));
+            Workers.prioritize(new Vector3f(), new Vector3f(0, 0, -1));
+            List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+            List<ChunkTask> tasks = new ArrayList<>();
+            ChunkTask far = null;
+            for (int x : new int[]{320, 64, 640, 0, 160}) {
+                ChunkTask task = Workers.io(() -> order.add(x), new Vector3i(x, 0, 0));
+                if (x == 640) far = task;
+                else tasks.add(task);
+            }
+            assertTrue(far.cancelIfQueued());
+            first.countDown();
+            for (ChunkTask task : tasks) task.get(10, TimeUnit.SECONDS);
+            assertEquals(List.of(0, 64, 160, 320), order);
+            assertTrue(far.isCancelled());
+        } finally {
+            first.countDown();
+            rest.countDown();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
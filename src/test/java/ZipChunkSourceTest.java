@@ -0,0 +1,64 @@
+import org.joml.Vector3i;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * An imported world file can be overwritten while its chunks are still read from it
+ */
+public class ZipChunkSourceTest {
+
+    private final Vector3i a = new Vector3i(0, 0, 0), b = new Vector3i(32, 0, -32);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void replacedFileKeepsAvailableChunksReadable() throws IOException {
+        File file = directory.resolve("world.bwe").toFile();
+        write(file, new byte[]{1}, new byte[]{2});
+        ZipChunkSource source = new ZipChunkSource(file);
+        try {
+            assertTrue(source.add(a, name(a)));
+            assertTrue(source.add(b, name(b)));
+            assertTrue(source.take(Chunk.key(a)));
+            // Exported again over itself, the taken chunk was not modified and is left out
+            File export = directory.resolve("world.bwe.part").toFile();
+            write(export, null, new byte[]{3});
+            source.replace(export.toPath());
+            assertFalse(export.exists());
+            assertArrayEquals(new byte[]{3}, source.read(Chunk.key(b)));
+            assertNull(source.read(Chunk.key(a)));
+            assertTrue(source.contains(Chunk.key(b)));
+            assertNotNull(source.readEntry("world.json"));
+        } finally {
+            source.close();
+        }
+    }
+
+    private void write(File file, byte[] payloadA, byte[] payloadB) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            if (payloadA != null) put(out, name(a), payloadA);
+            put(out, name(b), payloadB);
+            put(out, "world.json", "{}".getBytes());
+        }
+    }
+
+    private static void put(ZipOutputStream out, String name, byte[] data) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(data);
+    }
+
+    private static String name(Vector3i origin) {
+        return origin.x + "_" + origin.z + ".chunk";
+    }
+
+}